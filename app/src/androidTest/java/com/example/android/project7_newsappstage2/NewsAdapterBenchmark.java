@@ -0,0 +1,89 @@
+package com.example.android.project7_newsappstage2;
+
+import android.content.Context;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Measures how fast {@link NewsAdapter} binds recycled rows, which has to run on a device.
+ * The results are written to logcat under the NewsAdapterBenchmark tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class NewsAdapterBenchmark {
+
+    private static final String LOG_TAG = "NewsAdapterBenchmark";
+
+    private static final int ROWS = 500;
+
+    private static final int WARM_UP_PASSES = 2;
+
+    private static final int MEASURED_PASSES = 10;
+
+    @Test
+    public void bindRecycledRows() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                Context context = InstrumentationRegistry.getTargetContext();
+                NewsAdapter adapter = new NewsAdapter(ThumbnailLoader.getInstance(context), null);
+                // The first list is shown right away, there is nothing to diff it with
+                adapter.submitList(createNews());
+                RecyclerView parent = new RecyclerView(context);
+                parent.setLayoutManager(new LinearLayoutManager(context));
+
+                // Bind every row into the same recycled holder
+                NewsAdapter.NewsViewHolder holder = adapter.onCreateViewHolder(parent, 0);
+
+                // Warm up, which also formats and remembers every date once
+                for (int pass = 0; pass < WARM_UP_PASSES; pass++) {
+                    for (int i = 0; i < ROWS; i++) {
+                        adapter.onBindViewHolder(holder, i);
+                    }
+                }
+
+                int binds = ROWS * MEASURED_PASSES;
+                Debug.resetThreadAllocCount();
+                Debug.startAllocCounting();
+                long start = System.nanoTime();
+                for (int pass = 0; pass < MEASURED_PASSES; pass++) {
+                    for (int i = 0; i < ROWS; i++) {
+                        adapter.onBindViewHolder(holder, i);
+                    }
+                }
+                long elapsedNanos = System.nanoTime() - start;
+                Debug.stopAllocCounting();
+                int allocations = Debug.getThreadAllocCount();
+
+                double bindsPerSecond = binds * 1e9 / elapsedNanos;
+                double allocationsPerBind = (double) allocations / binds;
+                Log.i(LOG_TAG, String.format("%d rows: %.0f binds/s, %.2f allocations/bind",
+                        ROWS, bindsPerSecond, allocationsPerBind));
+
+                assertEquals(ROWS, adapter.getItemCount());
+            }
+        });
+    }
+
+    private static List<News> createNews() {
+        List<News> news = new ArrayList<>(ROWS);
+        long publicationTime = GuardianDateCodec.parse("2018-08-20T10:15:00Z");
+        for (int i = 0; i < ROWS; i++) {
+            String author = i % 4 == 0 ? null : "Author " + (i % 25);
+            news.add(new News("section" + (i % 6), "Section " + (i % 6), "Headline number " + i, author,
+                    "https://www.theguardian.com/article/" + i, publicationTime - i * 60000L, null));
+        }
+        return news;
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.android.project7_newsappstage2;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the byte arrays response bodies are read into, so fetching again reuses the array of
+ * the previous fetch instead of allocating a new payload sized one.
+ * <p>
+ * Arrays come in power of two sizes, so an array fits any body up to its size, and the pool
+ * keeps at most a few hundred kilobytes; anything beyond that is left to the collector.
+ */
+final class ByteArrayPool {
+
+    /**
+     * Smallest array handed out
+     */
+    private static final int MIN_SIZE = 8 * 1024;
+
+    /**
+     * Bigger arrays are not kept, a body that large is rare
+     */
+    private static final int MAX_POOLED_SIZE = 1024 * 1024;
+
+    /**
+     * Bytes kept in the pool at most
+     */
+    private static final int MAX_POOL_BYTES = 512 * 1024;
+
+    private static final ByteArrayPool INSTANCE = new ByteArrayPool();
+
+    /**
+     * The free arrays of every size, index i holds arrays of MIN_SIZE << i bytes
+     */
+    private final List<ArrayDeque<byte[]>> free;
+
+    /**
+     * Bytes in the free arrays, guarded by this
+     */
+    private int pooledBytes;
+
+    private ByteArrayPool() {
+        int classes = Integer.numberOfTrailingZeros(MAX_POOLED_SIZE / MIN_SIZE) + 1;
+        free = new ArrayList<>(classes);
+        for (int i = 0; i < classes; i++) {
+            free.add(new ArrayDeque<byte[]>(2));
+        }
+    }
+
+    /**
+     * Returns the pool shared by the whole app.
+     */
+    static ByteArrayPool getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns an array of at least the length, give it back with {@link #release(byte[])}.
+     */
+    byte[] acquire(int minLength) {
+        int size = sizeFor(minLength);
+        int index = indexOf(size);
+        if (index >= 0) {
+            synchronized (this) {
+                byte[] array = free.get(index).poll();
+                if (array != null) {
+                    pooledBytes -= array.length;
+                    return array;
+                }
+            }
+        }
+        return new byte[size];
+    }
+
+    /**
+     * Hand an array back once nothing reads it any more.
+     */
+    void release(byte[] array) {
+        int index = indexOf(array.length);
+        if (index < 0) {
+            return;
+        }
+        synchronized (this) {
+            if (pooledBytes + array.length <= MAX_POOL_BYTES) {
+                free.get(index).push(array);
+                pooledBytes += array.length;
+            }
+        }
+    }
+
+    //The power of two size that holds the length, at least MIN_SIZE
+    private static int sizeFor(int length) {
+        if (length <= MIN_SIZE) {
+            return MIN_SIZE;
+        }
+        int size = Integer.highestOneBit(length);
+        return size == length ? size : size << 1;
+    }
+
+    //Index of the free list of an array size, -1 if arrays of that size are not pooled
+    private int indexOf(int size) {
+        if (size < MIN_SIZE || size > MAX_POOLED_SIZE || Integer.bitCount(size) != 1) {
+            return -1;
+        }
+        return Integer.numberOfTrailingZeros(size / MIN_SIZE);
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.android.project7_newsappstage2;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * The bytes of a response body, read into an array of the {@link ByteArrayPool}.
+ * <p>
+ * The array is usually longer than the body, only the first {@link #length} bytes count.
+ * Call {@link #release()} once the body has been parsed, the view must not be used after.
+ */
+final class ByteView {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    final byte[] data;
+
+    final int length;
+
+    ByteView(byte[] data, int length) {
+        this.data = data;
+        this.length = length;
+    }
+
+    /**
+     * Returns a stream over the body, it reads the pooled array without copying it.
+     */
+    InputStream openStream() {
+        return new ByteArrayInputStream(data, 0, length);
+    }
+
+    /**
+     * Returns the body decoded as UTF-8.
+     */
+    String decode() {
+        return new String(data, 0, length, UTF_8);
+    }
+
+    /**
+     * Hand the array back to the pool.
+     */
+    void release() {
+        ByteArrayPool.getInstance().release(data);
+    }
+}
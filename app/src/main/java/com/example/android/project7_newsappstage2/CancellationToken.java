@@ -0,0 +1,97 @@
+package com.example.android.project7_newsappstage2;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Tells the work of a load that it is no longer wanted.
+ * <p>
+ * Checking {@link #isCancelled()} is enough between steps, but a thread blocked in a socket read
+ * would not notice for seconds, so whatever blocks registers a listener that unblocks it, such
+ * as disconnecting the connection being read. It plays the part of
+ * {@code android.os.CancellationSignal}, which needs API 16.
+ */
+final class CancellationToken {
+
+    /**
+     * Called once, on the thread that cancels the token or on the executor it passes.
+     */
+    interface OnCancelListener {
+        void onCancel();
+    }
+
+    /**
+     * Guarded by this
+     */
+    private boolean cancelled;
+
+    /**
+     * Guarded by this
+     */
+    private final List<OnCancelListener> listeners = new ArrayList<>(2);
+
+    /**
+     * Cancel the work and run every listener, does nothing if it already was.
+     */
+    void cancel() {
+        // Outside the lock, a listener may well take locks of its own
+        runListeners(markCancelled());
+    }
+
+    /**
+     * Cancel the work straight away and run every listener on the executor, for a thread that
+     * must not wait on them, such as the main thread while a listener closes a socket.
+     */
+    void cancel(Executor listenerExecutor) {
+        final List<OnCancelListener> toRun = markCancelled();
+        if (toRun.isEmpty()) {
+            return;
+        }
+        listenerExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                runListeners(toRun);
+            }
+        });
+    }
+
+    //Returns the listeners to run, none if the token already was cancelled
+    private synchronized List<OnCancelListener> markCancelled() {
+        if (cancelled) {
+            return Collections.emptyList();
+        }
+        cancelled = true;
+        List<OnCancelListener> toRun = new ArrayList<>(listeners);
+        listeners.clear();
+        return toRun;
+    }
+
+    private static void runListeners(List<OnCancelListener> toRun) {
+        for (OnCancelListener listener : toRun) {
+            listener.onCancel();
+        }
+    }
+
+    synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Run the listener when the token is cancelled, or right away if it already is.
+     */
+    void addOnCancelListener(OnCancelListener listener) {
+        synchronized (this) {
+            if (!cancelled) {
+                listeners.add(listener);
+                return;
+            }
+        }
+        listener.onCancel();
+    }
+
+    synchronized void removeOnCancelListener(OnCancelListener listener) {
+        listeners.remove(listener);
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.android.project7_newsappstage2;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stops requests to a backend that keeps failing.
+ * <p>
+ * After a number of failures in a row the breaker opens and every request is refused
+ * straight away, so the app answers from its caches instead of waiting for yet another
+ * timeout. Once the cool down has passed a single trial request is let through: if it
+ * succeeds the breaker closes again, otherwise it stays open for another cool down.
+ */
+final class CircuitBreaker {
+
+    private final int failureThreshold;
+
+    private final long coolDownNanos;
+
+    /**
+     * Failures since the last success, guarded by this
+     */
+    private int consecutiveFailures;
+
+    /**
+     * When the breaker opened, only meaningful while it is open, guarded by this
+     */
+    private long openedAtNanos;
+
+    /**
+     * True while the trial request after a cool down is running, guarded by this
+     */
+    private boolean trialRunning;
+
+    /**
+     * Create a new {@link CircuitBreaker}.
+     *
+     * @param failureThreshold is the number of failures in a row that opens the breaker
+     * @param coolDownMillis   is how long the breaker refuses requests once it is open
+     */
+    CircuitBreaker(int failureThreshold, long coolDownMillis) {
+        this.failureThreshold = failureThreshold;
+        coolDownNanos = TimeUnit.MILLISECONDS.toNanos(coolDownMillis);
+    }
+
+    /**
+     * Returns true if a request may be sent now. A request that is allowed must be reported
+     * with {@link #recordSuccess()} or {@link #recordFailure()}.
+     */
+    synchronized boolean allowRequest() {
+        if (consecutiveFailures < failureThreshold) {
+            return true;
+        }
+        if (trialRunning || System.nanoTime() - openedAtNanos < coolDownNanos) {
+            return false;
+        }
+        trialRunning = true;
+        return true;
+    }
+
+    synchronized void recordSuccess() {
+        consecutiveFailures = 0;
+        trialRunning = false;
+    }
+
+    synchronized void recordFailure() {
+        consecutiveFailures++;
+        if (consecutiveFailures >= failureThreshold) {
+            // Opens the breaker, or keeps it open for another cool down after a failed trial
+            openedAtNanos = System.nanoTime();
+        }
+        trialRunning = false;
+    }
+
+    /**
+     * The allowed request ended without telling anything about the backend, for example
+     * because it was interrupted.
+     */
+    synchronized void recordAbandoned() {
+        trialRunning = false;
+    }
+
+    synchronized boolean isOpen() {
+        return consecutiveFailures >= failureThreshold;
+    }
+}
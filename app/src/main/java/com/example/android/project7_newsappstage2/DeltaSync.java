@@ -0,0 +1,164 @@
+package com.example.android.project7_newsappstage2;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Refreshes the first page of a feed by downloading only the articles published since it was
+ * cached, instead of the whole page again.
+ * <p>
+ * The watermark of a section is the newest publication date among its cached articles. Only
+ * the articles published since then are asked for, newest first, and they are merged into the
+ * cached ones by date. Usually a refresh finds a couple of new articles or none, so it is a tiny
+ * request. When a whole page of new articles comes back there may be more than fit in it, so
+ * the cached articles of that section are dropped rather than leaving a hole before them.
+ * <p>
+ * A cached page downloaded whole more than {@link #MAX_AGE_MILLIS} ago is downloaded whole again,
+ * however often it was refreshed since, so articles that were corrected or taken down do not
+ * linger in it.
+ */
+final class DeltaSync {
+
+    /**
+     * Age beyond which the cached page is downloaded whole instead
+     */
+    static final long MAX_AGE_MILLIS = 60 * 60 * 1000;
+
+    /**
+     * Newest first
+     */
+    private static final Comparator<News> NEWEST_FIRST = new Comparator<News>() {
+        @Override
+        public int compare(News first, News second) {
+            long firstTime = first.getPublicationTime();
+            long secondTime = second.getPublicationTime();
+            return firstTime > secondTime ? -1 : (firstTime == secondTime ? 0 : 1);
+        }
+    };
+
+    /**
+     * No one should create a {@link DeltaSync} object, it only holds static methods.
+     */
+    private DeltaSync() {
+    }
+
+    /**
+     * Returns true if the cached first page of the feed was downloaded recently enough to be
+     * refreshed with the new articles only, and every section has a watermark in it.
+     */
+    static boolean canRefresh(List<String> sectionUrls, NewsCache.Entry cached) {
+        if (cached == null) {
+            return false;
+        }
+        long age = System.currentTimeMillis() - cached.downloadedAt;
+        if (age < 0 || age >= MAX_AGE_MILLIS) {
+            return false;
+        }
+        List<String> sectionIds = NewsQuery.getSectionIds(sectionUrls);
+        if (sectionIds.size() != sectionUrls.size()) {
+            return false;
+        }
+        for (int i = 0; i < sectionUrls.size(); i++) {
+            if (NewsQuery.getRequestedPage(sectionUrls.get(i)) != 1
+                    || getWatermark(cached.news, sectionIds.get(i)) == GuardianDateCodec.INVALID) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Download the articles published since the cached first page of the feed and merge them
+     * into it. Check {@link #canRefresh(List, NewsCache.Entry)} first.
+     *
+     * @param sectionUrls  is the query url of every section in the feed
+     * @param cached       is the cached first page
+     * @param pageSize     is the number of news in a page of the feed
+     * @param cancellation aborts the download, may be null
+     * @return the refreshed first page, partial if the new articles of some sections could not
+     * be downloaded, or null if none of them could
+     */
+    static MultiSectionFetcher.Result refresh(List<String> sectionUrls, NewsCache.Entry cached,
+                                              int pageSize, CancellationToken cancellation) {
+        List<String> sectionIds = NewsQuery.getSectionIds(sectionUrls);
+        List<String> deltaUrls = new ArrayList<>(sectionUrls.size());
+        Map<String, Integer> sectionPageSizes = new HashMap<>();
+        for (int i = 0; i < sectionUrls.size(); i++) {
+            String url = sectionUrls.get(i);
+            deltaUrls.add(NewsQuery.buildDeltaUrl(url, getWatermark(cached.news, sectionIds.get(i))));
+            sectionPageSizes.put(sectionIds.get(i), NewsQuery.getRequestedPageSize(url));
+        }
+
+        MultiSectionFetcher.Result newer;
+        if (deltaUrls.size() > 1) {
+            newer = MultiSectionFetcher.fetchNewsItemsData(deltaUrls, cancellation);
+        } else {
+            List<News> news = NewsRequestCoalescer.getInstance().fetchNewsItemsData(
+                    deltaUrls.get(0), null, cancellation);
+            newer = news != null ? new MultiSectionFetcher.Result(news, false) : null;
+        }
+        if (newer == null) {
+            return null;
+        }
+        NewsMetrics.count(NewsMetrics.COUNTER_DELTA_REFRESHES, 1);
+        // The cached articles of a failed section are kept, they are refreshed on the next load
+        List<News> merged = merge(cached.news, newer.news, sectionPageSizes, pageSize);
+        return new MultiSectionFetcher.Result(merged, newer.partial);
+    }
+
+    /**
+     * Returns the newest publication time of the news of the section, or
+     * {@link GuardianDateCodec#INVALID} if there are none.
+     */
+    static long getWatermark(List<News> news, String sectionId) {
+        long watermark = GuardianDateCodec.INVALID;
+        for (News item : news) {
+            if (sectionId.equals(item.getSectionId()) && item.getPublicationTime() > watermark) {
+                watermark = item.getPublicationTime();
+            }
+        }
+        return watermark;
+    }
+
+    /**
+     * Merge the new articles into the cached ones, newest first, and keep a page of them.
+     * A new article replaces the cached one with the same url, which may have been updated.
+     *
+     * @param sectionPageSizes is the number of news requested per section, by section id
+     */
+    static List<News> merge(List<News> cached, List<News> newer, Map<String, Integer> sectionPageSizes,
+                            int pageSize) {
+        Map<String, Integer> newerCounts = new HashMap<>();
+        Set<String> urls = new HashSet<>();
+        List<News> merged = new ArrayList<>(cached.size() + newer.size());
+        for (News news : newer) {
+            if (urls.add(news.getArticleUrl())) {
+                merged.add(news);
+                Integer count = newerCounts.get(news.getSectionId());
+                newerCounts.put(news.getSectionId(), count == null ? 1 : count + 1);
+            }
+        }
+
+        for (News news : cached) {
+            Integer count = newerCounts.get(news.getSectionId());
+            Integer sectionPageSize = sectionPageSizes.get(news.getSectionId());
+            if (count != null && sectionPageSize != null && count >= sectionPageSize) {
+                // More new articles than a page, the cached ones may not follow them
+                continue;
+            }
+            if (urls.add(news.getArticleUrl())) {
+                merged.add(news);
+            }
+        }
+
+        // The sort is stable, so articles published at the same second keep their order
+        Collections.sort(merged, NEWEST_FIRST);
+        return merged.size() > pageSize ? new ArrayList<>(merged.subList(0, pageSize)) : merged;
+    }
+}
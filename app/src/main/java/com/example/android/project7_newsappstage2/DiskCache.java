@@ -0,0 +1,210 @@
+package com.example.android.project7_newsappstage2;
+
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A small size bounded key/value store of byte records in a directory.
+ * <p>
+ * Every key is stored in its own file named after the SHA-1 of the key. Reading a record
+ * touches its file, so once the directory grows past the maximum size the least recently
+ * used records are deleted first.
+ */
+final class DiskCache {
+
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = DiskCache.class.getName();
+
+    /**
+     * Records are written to a temporary file first so a crash never leaves half a record
+     */
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final File directory;
+
+    private final long maxSize;
+
+    /**
+     * Bytes currently stored in the directory, -1 until the directory has been scanned
+     */
+    private long size = -1;
+
+    /**
+     * Create a new {@link DiskCache}.
+     *
+     * @param directory is where the records are stored, it is created if needed
+     * @param maxSize   is the number of bytes after which the least recently used records are evicted
+     */
+    DiskCache(File directory, long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the record stored for the key, or null if there is none.
+     */
+    synchronized byte[] get(String key) {
+        File file = fileFor(key);
+        if (!file.exists()) {
+            return null;
+        }
+
+        byte[] data = new byte[(int) file.length()];
+        InputStream inputStream = null;
+        try {
+            inputStream = new FileInputStream(file);
+            int offset = 0;
+            while (offset < data.length) {
+                int read = inputStream.read(data, offset, data.length - offset);
+                if (read == -1) {
+                    return null;
+                }
+                offset += read;
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error reading cache record", e);
+            return null;
+        } finally {
+            closeQuietly(inputStream);
+        }
+
+        //Mark the record as recently used
+        file.setLastModified(System.currentTimeMillis());
+        return data;
+    }
+
+    /**
+     * Store the record for the key, replacing any previous one.
+     */
+    synchronized void put(String key, byte[] data) {
+        if (!directory.exists() && !directory.mkdirs()) {
+            Log.e(LOG_TAG, "Error creating cache directory " + directory);
+            return;
+        }
+        ensureSize();
+
+        File file = fileFor(key);
+        File tempFile = new File(directory, file.getName() + TEMP_SUFFIX);
+        OutputStream outputStream = null;
+        try {
+            outputStream = new FileOutputStream(tempFile);
+            outputStream.write(data);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error writing cache record", e);
+            tempFile.delete();
+            return;
+        } finally {
+            closeQuietly(outputStream);
+        }
+
+        size -= file.length();
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            size += file.length();
+            return;
+        }
+        size += data.length;
+        trimToSize();
+    }
+
+    /**
+     * Delete the record stored for the key, if any.
+     */
+    synchronized void remove(String key) {
+        File file = fileFor(key);
+        ensureSize();
+        long length = file.length();
+        if (file.delete()) {
+            size -= length;
+        }
+    }
+
+    //Delete the least recently used records until the directory fits in maxSize
+    private void trimToSize() {
+        if (size <= maxSize) {
+            return;
+        }
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File first, File second) {
+                long firstModified = first.lastModified();
+                long secondModified = second.lastModified();
+                return firstModified < secondModified ? -1 : (firstModified == secondModified ? 0 : 1);
+            }
+        });
+        for (int i = 0; i < files.length && size > maxSize; i++) {
+            long length = files[i].length();
+            if (files[i].delete()) {
+                size -= length;
+            }
+        }
+    }
+
+    //Sum the directory the first time it is needed
+    private void ensureSize() {
+        if (size >= 0) {
+            return;
+        }
+        size = 0;
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.getName().endsWith(TEMP_SUFFIX)) {
+                file.delete();
+            } else {
+                size += file.length();
+            }
+        }
+    }
+
+    //Keys can be long URLs, so they are hashed into a file name
+    private File fileFor(String key) {
+        return new File(directory, sha1(key));
+    }
+
+    private static String sha1(String key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(key.getBytes(Charset.forName("UTF-8")));
+            StringBuilder hex = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+                hex.append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-1
+            throw new AssertionError(e);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
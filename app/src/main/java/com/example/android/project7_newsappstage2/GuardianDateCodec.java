@@ -0,0 +1,196 @@
+package com.example.android.project7_newsappstage2;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Parses and formats the publication dates of the Guardian API.
+ * <p>
+ * The API always sends dates as {@code yyyy-MM-dd'T'HH:mm:ss'Z'} in UTC, so they are parsed by
+ * hand into milliseconds since the epoch instead of going through {@link SimpleDateFormat}.
+ * Formatting for display still needs a localized {@link SimpleDateFormat}, but every thread
+ * keeps its own one, so the codec is safe to use from any number of threads without
+ * creating formatters per article. A thread makes a new one when the default locale or time
+ * zone changes, so the dates follow the settings of the device.
+ */
+final class GuardianDateCodec {
+
+    /**
+     * Returned by {@link #parse(String)} for a missing or malformed date
+     */
+    static final long INVALID = 0;
+
+    private static final String DISPLAY_PATTERN = "MMM dd, yyyy / HH:mm";
+
+    /**
+     * Length of yyyy-MM-ddTHH:mm:ssZ
+     */
+    private static final int RAW_LENGTH = 20;
+
+    private static final long MILLIS_PER_SECOND = 1000;
+    private static final long SECONDS_PER_DAY = 24 * 60 * 60;
+
+    //A display formatter for a locale and time zone and the Date it formats, both confined to
+    //one thread
+    private static final class DisplayFormat {
+
+        final Locale locale;
+
+        final String timeZoneId;
+
+        final SimpleDateFormat format;
+
+        final Date date = new Date();
+
+        DisplayFormat(Locale locale, TimeZone timeZone) {
+            this.locale = locale;
+            timeZoneId = timeZone.getID();
+            format = new SimpleDateFormat(DISPLAY_PATTERN, locale);
+            format.setTimeZone(timeZone);
+        }
+
+        boolean isFor(Locale locale, TimeZone timeZone) {
+            return this.locale.equals(locale) && timeZoneId.equals(timeZone.getID());
+        }
+    }
+
+    /**
+     * The display formatter of every thread, null until the thread first formats a date
+     */
+    private static final ThreadLocal<DisplayFormat> DISPLAY_FORMAT = new ThreadLocal<>();
+
+    /**
+     * No one should create a {@link GuardianDateCodec} object, it only holds static methods.
+     */
+    private GuardianDateCodec() {
+    }
+
+    /**
+     * Parse a Guardian date like 2018-08-20T10:15:00Z.
+     *
+     * @return the milliseconds since the epoch, or {@link #INVALID}
+     */
+    static long parse(CharSequence rawDate) {
+        if (rawDate == null || rawDate.length() != RAW_LENGTH
+                || rawDate.charAt(4) != '-' || rawDate.charAt(7) != '-' || rawDate.charAt(10) != 'T'
+                || rawDate.charAt(13) != ':' || rawDate.charAt(16) != ':' || rawDate.charAt(19) != 'Z') {
+            return INVALID;
+        }
+
+        int year = digits(rawDate, 0, 4);
+        int month = digits(rawDate, 5, 2);
+        int day = digits(rawDate, 8, 2);
+        int hour = digits(rawDate, 11, 2);
+        int minute = digits(rawDate, 14, 2);
+        int second = digits(rawDate, 17, 2);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)
+                || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 60) {
+            return INVALID;
+        }
+
+        long seconds = daysFromCivil(year, month, day) * SECONDS_PER_DAY
+                + hour * 3600L + minute * 60L + second;
+        return seconds * MILLIS_PER_SECOND;
+    }
+
+    /**
+     * Format milliseconds since the epoch for display in the list, in the local time zone.
+     *
+     * @return the formatted date, or null for {@link #INVALID}
+     */
+    static String format(long millis) {
+        if (millis == INVALID) {
+            return null;
+        }
+        Locale locale = Locale.getDefault();
+        TimeZone timeZone = TimeZone.getDefault();
+        DisplayFormat displayFormat = DISPLAY_FORMAT.get();
+        if (displayFormat == null || !displayFormat.isFor(locale, timeZone)) {
+            displayFormat = new DisplayFormat(locale, timeZone);
+            DISPLAY_FORMAT.set(displayFormat);
+        }
+        displayFormat.date.setTime(millis);
+        return displayFormat.format.format(displayFormat.date);
+    }
+
+    /**
+     * Format milliseconds since the epoch the way the API sends and accepts dates, like
+     * 2018-08-20T10:15:00Z. Milliseconds are dropped, and the time must not be before the epoch.
+     */
+    static String formatRaw(long millis) {
+        long seconds = millis / MILLIS_PER_SECOND;
+        long days = seconds / SECONDS_PER_DAY;
+        int secondOfDay = (int) (seconds - days * SECONDS_PER_DAY);
+
+        // The inverse of daysFromCivil, again counting years from March
+        long z = days + 719468;
+        long era = z / 146097;
+        int dayOfEra = (int) (z - era * 146097);
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int monthFromMarch = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * monthFromMarch + 2) / 5 + 1;
+        int month = monthFromMarch < 10 ? monthFromMarch + 3 : monthFromMarch - 9;
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+        StringBuilder raw = new StringBuilder(RAW_LENGTH);
+        appendDigits(raw, year, 4).append('-');
+        appendDigits(raw, month, 2).append('-');
+        appendDigits(raw, day, 2).append('T');
+        appendDigits(raw, secondOfDay / 3600, 2).append(':');
+        appendDigits(raw, secondOfDay / 60 % 60, 2).append(':');
+        appendDigits(raw, secondOfDay % 60, 2).append('Z');
+        return raw.toString();
+    }
+
+    //Append a number padded with zeros to a fixed number of digits
+    private static StringBuilder appendDigits(StringBuilder text, long value, int count) {
+        String digits = String.valueOf(value);
+        for (int i = digits.length(); i < count; i++) {
+            text.append('0');
+        }
+        return text.append(digits);
+    }
+
+    //Read a fixed number of decimal digits, -1 if any of them is not a digit
+    private static int digits(CharSequence text, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            int digit = text.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    //Number of days of the month, February has 29 in leap years
+    private static int daysInMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                boolean leapYear = year % 4 == 0 && (year % 100 != 0 || year % 400 == 0);
+                return leapYear ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    //Days between 1970-01-01 and the date in the proleptic Gregorian calendar
+    private static long daysFromCivil(int year, int month, int day) {
+        // Count years from March so the leap day is the last day of the year
+        int y = month <= 2 ? year - 1 : year;
+        int era = (y >= 0 ? y : y - 399) / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468;
+    }
+}
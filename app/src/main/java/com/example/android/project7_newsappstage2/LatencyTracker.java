@@ -0,0 +1,55 @@
+package com.example.android.project7_newsappstage2;
+
+import java.util.Arrays;
+
+/**
+ * Remembers the latency of the last few requests and answers percentiles over them.
+ * <p>
+ * Samples are kept in a fixed ring, so the percentiles follow the network the device is on
+ * now instead of the whole history of the app.
+ */
+final class LatencyTracker {
+
+    private final long[] samples;
+
+    /**
+     * Number of samples recorded so far, the ring is full once it reaches samples.length
+     */
+    private int count;
+
+    /**
+     * Create a new {@link LatencyTracker}.
+     *
+     * @param capacity is the number of most recent samples the percentiles are taken over
+     */
+    LatencyTracker(int capacity) {
+        samples = new long[capacity];
+    }
+
+    synchronized void record(long latencyMillis) {
+        samples[count % samples.length] = latencyMillis;
+        count++;
+    }
+
+    /**
+     * Returns the number of samples the percentiles are taken over.
+     */
+    synchronized int size() {
+        return Math.min(count, samples.length);
+    }
+
+    /**
+     * Returns the latency that the given fraction (between 0 and 1) of the samples do not
+     * exceed, or -1 if nothing was recorded yet.
+     */
+    synchronized long percentile(double fraction) {
+        int size = size();
+        if (size == 0) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(samples, size);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(fraction * size) - 1;
+        return sorted[Math.max(0, Math.min(size - 1, index))];
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.android.project7_newsappstage2;
+
+import android.content.Intent;
+import android.os.Bundle;
+import android.support.v7.app.AppCompatActivity;
+import android.util.Log;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.widget.TextView;
+
+import org.json.JSONException;
+
+/**
+ * Debug screen showing the {@link NewsMetrics} of this process, which can be exported as JSON
+ * to compare one build with another.
+ */
+public class MetricsActivity extends AppCompatActivity {
+
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = MetricsActivity.class.getName();
+
+    private TextView metricsTextView;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_metrics);
+        metricsTextView = findViewById(R.id.metrics_text);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        showMetrics();
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.metrics, menu);
+        menu.findItem(R.id.action_count_allocations).setChecked(NewsMetrics.isCountingAllocations());
+        menu.findItem(R.id.action_parallel_parse).setChecked(ParallelNewsParser.isEnabled());
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        int id = item.getItemId();
+        if (id == R.id.action_share_metrics) {
+            shareMetrics();
+            return true;
+        } else if (id == R.id.action_count_allocations) {
+            boolean counting = !item.isChecked();
+            NewsMetrics.setCountingAllocations(counting);
+            item.setChecked(counting);
+            showMetrics();
+            return true;
+        } else if (id == R.id.action_parallel_parse) {
+            boolean enabled = !item.isChecked();
+            ParallelNewsParser.setEnabled(enabled);
+            item.setChecked(enabled);
+            return true;
+        } else if (id == R.id.action_reset_metrics) {
+            NewsMetrics.reset();
+            showMetrics();
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    private void showMetrics() {
+        metricsTextView.setText(NewsMetrics.dump());
+    }
+
+    //Hand the metrics as JSON to any app that takes text, such as mail or a file manager
+    private void shareMetrics() {
+        String json;
+        try {
+            json = NewsMetrics.toJson().toString(2);
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, "Error exporting the metrics", e);
+            return;
+        }
+        Intent shareIntent = new Intent(Intent.ACTION_SEND);
+        shareIntent.setType("application/json");
+        shareIntent.putExtra(Intent.EXTRA_SUBJECT, getString(R.string.metrics_export_subject));
+        shareIntent.putExtra(Intent.EXTRA_TEXT, json);
+        startActivity(Intent.createChooser(shareIntent, getString(R.string.share_metrics_menu_item)));
+    }
+}
@@ -0,0 +1,210 @@
+package com.example.android.project7_newsappstage2;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fetches the news of several sections at the same time and merges them into one feed.
+ * <p>
+ * Every section is requested on a small bounded pool, so the feed takes about as long as the
+ * slowest section instead of the sum of all of them. The per-section lists are newest first,
+ * so they are combined with a k-way merge on the publication time, dropping any article that
+ * shows up in more than one section.
+ * <p>
+ * When some of the sections fail the others are still returned, marked as partial, so the feed
+ * is not cached as up to date and the failed sections are asked for again on the next load.
+ */
+final class MultiSectionFetcher {
+
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = MultiSectionFetcher.class.getName();
+
+    /**
+     * Maximum number of sections requested at the same time
+     */
+    private static final int MAX_PARALLEL_REQUESTS = 4;
+
+    private static final ExecutorService EXECUTOR = createExecutor();
+
+    /**
+     * The merged news of the sections that could be fetched
+     */
+    static final class Result {
+
+        final List<News> news;
+
+        /**
+         * True if some of the sections could not be fetched, so their news are missing
+         */
+        final boolean partial;
+
+        Result(List<News> news, boolean partial) {
+            this.news = news;
+            this.partial = partial;
+        }
+    }
+
+    /**
+     * No one should create a {@link MultiSectionFetcher} object, it only holds static methods.
+     */
+    private MultiSectionFetcher() {
+    }
+
+    /**
+     * Fetch every section URL at the same time and merge the results.
+     *
+     * @param sectionUrls  is the query URL of every section, sorted by newest first
+     * @param cancellation aborts every section still being fetched, may be null
+     * @return the merged news, or null if every section failed or the fetch was cancelled
+     */
+    static Result fetchNewsItemsData(List<String> sectionUrls, final CancellationToken cancellation) {
+        final List<Future<List<News>>> futures = new ArrayList<>(sectionUrls.size());
+        for (final String sectionUrl : sectionUrls) {
+            futures.add(EXECUTOR.submit(new Callable<List<News>>() {
+                @Override
+                public List<News> call() {
+                    return NewsRequestCoalescer.getInstance().fetchNewsItemsData(sectionUrl, null, cancellation);
+                }
+            }));
+        }
+        CancellationToken.OnCancelListener cancelSections = new CancellationToken.OnCancelListener() {
+            @Override
+            public void onCancel() {
+                // The section fetches stop waiting on shared fetches through the interrupt
+                for (Future<List<News>> future : futures) {
+                    future.cancel(true);
+                }
+            }
+        };
+        if (cancellation != null) {
+            cancellation.addOnCancelListener(cancelSections);
+        }
+
+        List<List<News>> sections = new ArrayList<>(futures.size());
+        boolean anyFailed = false;
+        for (Future<List<News>> future : futures) {
+            try {
+                List<News> sectionNews = future.get();
+                if (sectionNews != null) {
+                    sections.add(sectionNews);
+                } else {
+                    anyFailed = true;
+                }
+            } catch (InterruptedException e) {
+                // The load was abandoned, so the remaining sections are not needed
+                for (Future<List<News>> pending : futures) {
+                    pending.cancel(true);
+                }
+                Thread.currentThread().interrupt();
+                return null;
+            } catch (ExecutionException e) {
+                Log.e(LOG_TAG, "Error fetching a section", e);
+                anyFailed = true;
+            } catch (CancellationException e) {
+                // Cancelled through the token, the other sections are cancelled too
+                break;
+            }
+        }
+        if (cancellation != null) {
+            cancellation.removeOnCancelListener(cancelSections);
+            if (cancellation.isCancelled()) {
+                return null;
+            }
+        }
+
+        return sections.isEmpty() ? null : new Result(merge(sections), anyFailed);
+    }
+
+    /**
+     * Merge lists that are sorted newest first into one list sorted newest first, keeping only
+     * the first {@link News} of every web URL.
+     */
+    static List<News> merge(List<List<News>> sortedLists) {
+        int total = 0;
+        for (List<News> list : sortedLists) {
+            total += list.size();
+        }
+
+        //The head of every list, ordered by newest publication time first
+        PriorityQueue<Cursor> heads = new PriorityQueue<>(Math.max(1, sortedLists.size()),
+                new Comparator<Cursor>() {
+                    @Override
+                    public int compare(Cursor first, Cursor second) {
+                        long firstTime = first.current().getPublicationTime();
+                        long secondTime = second.current().getPublicationTime();
+                        if (firstTime != secondTime) {
+                            return firstTime > secondTime ? -1 : 1;
+                        }
+                        // Keep the order of the sections for articles published together
+                        return first.listIndex - second.listIndex;
+                    }
+                });
+        for (int i = 0; i < sortedLists.size(); i++) {
+            if (!sortedLists.get(i).isEmpty()) {
+                heads.add(new Cursor(sortedLists.get(i), i));
+            }
+        }
+
+        List<News> merged = new ArrayList<>(total);
+        Set<String> seenUrls = new HashSet<>(total * 2);
+        while (!heads.isEmpty()) {
+            Cursor head = heads.poll();
+            News news = head.current();
+            String url = news.getArticleUrl();
+            if (url == null || seenUrls.add(url)) {
+                merged.add(news);
+            }
+            if (head.advance()) {
+                heads.add(head);
+            }
+        }
+        return merged;
+    }
+
+    //Position in one of the lists being merged
+    private static final class Cursor {
+
+        final List<News> list;
+
+        final int listIndex;
+
+        int position;
+
+        Cursor(List<News> list, int listIndex) {
+            this.list = list;
+            this.listIndex = listIndex;
+        }
+
+        News current() {
+            return list.get(position);
+        }
+
+        boolean advance() {
+            return ++position < list.size();
+        }
+    }
+
+    private static ExecutorService createExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_PARALLEL_REQUESTS, MAX_PARALLEL_REQUESTS,
+                30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        // Let the threads die while the feed is not being refreshed
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
@@ -1,32 +1,53 @@
 package com.example.android.project7_newsappstage2;
 
+/**
+ * One article. It can not be changed once created, and the section and author strings are
+ * shared with the other articles through the {@link NewsStringPool}.
+ */
 public class News {
 
-    private String mArticleCategory;
+    private final String mSectionId;
 
-    private String mArticleTitle;
+    private final String mArticleCategory;
 
-    private String mArticleAuthor;
+    private final String mArticleTitle;
 
-    private String mArticleDate;
+    private final String mArticleAuthor;
 
     private final String mArticleUrl;
 
+    private final long mPublicationTime;
+
+    private final String mThumbnailUrl;
+
     /**
      * Create a new News object.
      *
+     * @param sectionId       is the id of the section, as used in the section query parameter
      * @param articleCategory is the category of the article
      * @param articleTitle    is the title of the article
      * @param articleAuthor   is the author of the article
-     * @param articleDate     is the author of the article
      * @param articleUrl      is the web address of the article
+     * @param publicationTime is the publication time in milliseconds since the epoch, 0 if unknown
+     * @param thumbnailUrl    is the web address of the article thumbnail, null if there is none
      */
-    public News(String articleCategory, String articleTitle, String articleAuthor, String articleDate, String articleUrl) {
-        mArticleCategory = articleCategory;
+    public News(String sectionId, String articleCategory, String articleTitle, String articleAuthor,
+                String articleUrl, long publicationTime, String thumbnailUrl) {
+        // The same few sections and authors come back in every result
+        mSectionId = NewsStringPool.intern(sectionId);
+        mArticleCategory = NewsStringPool.intern(articleCategory);
         mArticleTitle = articleTitle;
-        mArticleAuthor = articleAuthor;
-        mArticleDate = articleDate;
+        mArticleAuthor = NewsStringPool.intern(articleAuthor);
         mArticleUrl = articleUrl;
+        mPublicationTime = publicationTime;
+        mThumbnailUrl = thumbnailUrl;
+    }
+
+    /**
+     * Returns the section id
+     */
+    public String getSectionId() {
+        return mSectionId;
     }
 
     /**
@@ -51,10 +72,17 @@ public class News {
     }
 
     /**
-     * Returns the article date
+     * Returns the article date formatted for display, null if unknown.
+     * It is formatted every time it is asked for, so it follows the current locale and time zone.
      */
     public String getArticleDate() {
-        return mArticleDate;
+        if (mPublicationTime == GuardianDateCodec.INVALID) {
+            return null;
+        }
+        long start = System.nanoTime();
+        String articleDate = GuardianDateCodec.format(mPublicationTime);
+        NewsMetrics.record(NewsMetrics.STAGE_FORMAT_DATE, start);
+        return articleDate;
     }
 
     /**
@@ -64,4 +92,18 @@ public class News {
         return mArticleUrl;
     }
 
+    /**
+     * Returns the publication time in milliseconds since the epoch, 0 if unknown
+     */
+    public long getPublicationTime() {
+        return mPublicationTime;
+    }
+
+    /**
+     * Returns the thumbnail url, null if the article has no thumbnail
+     */
+    public String getThumbnailUrl() {
+        return mThumbnailUrl;
+    }
+
 }
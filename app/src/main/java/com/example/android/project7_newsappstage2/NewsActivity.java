@@ -1,98 +1,266 @@
 package com.example.android.project7_newsappstage2;
 
-import android.app.LoaderManager;
 import android.content.Context;
 import android.content.Intent;
-import android.content.Loader;
 import android.content.SharedPreferences;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.net.Uri;
-import android.preference.PreferenceManager;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
 import android.os.Bundle;
+import android.preference.PreferenceManager;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ListView;
 import android.widget.TextView;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 public class NewsActivity extends AppCompatActivity {
 
     /**
-     * URL for news data from the dataset
+     * Constant value for the news load ID.
+     */
+    private static final int NEWS_GETTER_ID = 1;
+
+    /**
+     * Constant value for the load ID of the pages after (or before) the first one.
      */
-    public static final String NEWS_REQUEST_URL = "https://content.guardianapis.com/search?show-tags=" +
-            "contributor&show-fields=thumbnail&api-key=c66eef35-0811-42e7-b42f-b07cdf5a60fe";
+    private static final int NEWS_PAGE_GETTER_ID = 2;
 
+    /**
+     * Constant value for the load ID of the search.
+     */
+    private static final int NEWS_SEARCH_ID = 3;
 
     /**
-     * Constant value for the news loader ID.
+     * Number of pages kept in memory while scrolling
      */
-    private static final int NEWS_GETTER_ID = 1;
+    private static final int MAX_PAGES_IN_MEMORY = 5;
+
+    /**
+     * Number of feeds left behind whose pages are kept in memory, for switching back to them
+     */
+    private static final int MAX_RECENT_FEEDS = 2;
 
     /**
      * Adapter for the list of news
      */
     private NewsAdapter newsAdapter;
 
+    /**
+     * RecyclerView showing the news of the pages in the pager
+     */
+    private RecyclerView newsRecyclerView;
+
+    /**
+     * Lays out the news and tells which of them are visible
+     */
+    private LinearLayoutManager layoutManager;
+
+    /**
+     * The news handed to the adapter last, the adapter shows them once they are diffed
+     */
+    private List<News> shownNews = Collections.emptyList();
+
+    /**
+     * The news streamed so far by the load of the first page, while it is incomplete
+     */
+    private List<News> streamedNews = Collections.emptyList();
+
     /**
      * TextView that is displayed when the list is empty
      */
     private TextView noNewsStateTextView;
 
+    /**
+     * Text of noNewsStateTextView while the feed is shown
+     */
+    private int emptyFeedText = R.string.no_news_found;
+
+    /**
+     * What the user is searching for, null while the feed is shown
+     */
+    private String searchQuery;
 
     /**
-     * Get news from loader
+     * The stored news matching the search, they are shown instead of the feed while searching
      */
-    private final LoaderManager.LoaderCallbacks<List<News>> newsGetter
-            = new LoaderManager.LoaderCallbacks<List<News>>() {
+    private List<News> searchResults = Collections.emptyList();
 
-        @Override
-        public Loader<List<News>> onCreateLoader(int i, Bundle bundle) {
+    /**
+     * The window of pages shown in the list
+     */
+    private NewsPager newsPager;
+
+    /**
+     * Cache key of the feed in the pager, it changes with the settings
+     */
+    private String feedKey;
+
+    /**
+     * The pagers of the feeds shown before, by cache key, the least recently shown first
+     */
+    private Map<String, NewsPager> recentPagers;
+
+    /**
+     * Runs the loads of the news, it is kept while the activity is recreated
+     */
+    private NewsLoadSession loadSession;
 
-            SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(NewsActivity.this);
+    /**
+     * The page that is being loaded by the page load, 0 if none
+     */
+    private int loadingPage;
 
-            String numberOfArticles = sharedPreferences.getString(getString(R.string.number_of_articles_key),
-                    getString(R.string.number_of_articles_default));
+    /**
+     * The last page that failed to load, it is retried once the user scrolls again
+     */
+    private int failedPage;
 
-            String orderBySection = sharedPreferences.getString(getString(R.string.settings_order_by_section_key),
-                    getString(R.string.settings_order_by_section_default));
+    /**
+     * Get news from the loads
+     */
+    private final NewsLoadSession.Callbacks loadCallbacks = new NewsLoadSession.Callbacks() {
 
-            Uri baseUri = Uri.parse(NEWS_REQUEST_URL);
-            Uri.Builder uriBuilder = baseUri.buildUpon();
+        /**
+         * Show the news while they are still being downloaded
+         */
+        @Override
+        public void onLoadBatch(int id, List<News> batch, boolean firstBatch) {
+            if (id != NEWS_GETTER_ID) {
+                return;
+            }
+            // The batches refresh the first page, so they are only shown while the window starts
+            // there. Once the user has scrolled further down the pager keeps its pages and the
+            // complete first page is not taken either, so neither are its batches.
+            if (!newsPager.isEmpty() && newsPager.getFirstPage() != 1) {
+                return;
+            }
 
-            uriBuilder.appendQueryParameter("page-size", numberOfArticles);
-            uriBuilder.appendQueryParameter("section", orderBySection.toLowerCase());
+            // Hide loading indicator as soon as the first headlines are available
+            View loadingIndicator = findViewById(R.id.loading_indicator);
+            loadingIndicator.setVisibility(View.GONE);
 
-            return new NewsLoader(NewsActivity.this, uriBuilder.toString());
+            // A new load starts from an empty list, otherwise append to what was streamed
+            List<News> streamed = new ArrayList<>(firstBatch ? batch.size() : streamedNews.size() + batch.size());
+            if (!firstBatch) {
+                streamed.addAll(streamedNews);
+            }
+            streamed.addAll(batch);
+            streamedNews = streamed;
 
+            // The held pages stay shown, a streamed news takes the place of the held one with the
+            // same url and the ones not held yet go on top, until the complete page replaces it
+            showNews(newsPager.getNews(streamed));
         }
 
         @Override
-        public void onLoadFinished(Loader<List<News>> loader, List<News> news) {
+        public void onLoadFinished(int id, NewsLoadSession.LoadTask task, List<News> news) {
+            if (id == NEWS_SEARCH_ID) {
+                onSearchFinished(news);
+                return;
+            }
+            if (id == NEWS_PAGE_GETTER_ID) {
+                loadingPage = 0;
+                int page = ((NewsLoadTask) task).getPage();
+                if (news == null) {
+                    failedPage = page;
+                } else if (newsPager.putPage(page, news)) {
+                    showNews(newsPager.getNews());
+                }
+                return;
+            }
+
             // Hide loading indicator because the data has been loaded
             View loadingIndicator = findViewById(R.id.loading_indicator);
             loadingIndicator.setVisibility(View.GONE);
 
-            // Set empty state text to display "There are currently no news."
-            noNewsStateTextView.setText(R.string.no_news_found);
+            // Set empty state text to display "There are currently no news.", or the
+            // connection error message if nothing was cached and there is no connection
+            if (isConnected()) {
+                emptyFeedText = R.string.no_news_found;
+            } else {
+                emptyFeedText = R.string.please_connect;
+            }
+
+            // If there is a valid list of {@link News}s, then it becomes the first page and
+            // replaces the batches that were shown while loading. This will trigger the
+            // RecyclerView to update the rows that changed.
+            if (news != null && !news.isEmpty() && newsPager.putPage(1, news)) {
+                showNews(newsPager.getNews());
+            } else {
+                updateEmptyState();
+            }
+        }
+    };
+
+    /**
+     * Switch the feed as soon as its settings change, even while the settings are shown
+     */
+    private final SharedPreferences.OnSharedPreferenceChangeListener preferenceListener =
+            new SharedPreferences.OnSharedPreferenceChangeListener() {
+                @Override
+                public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+                    if (getString(R.string.number_of_articles_key).equals(key)
+                            || getString(R.string.settings_order_by_section_key).equals(key)
+                            || getString(R.string.settings_combined_sections_key).equals(key)) {
+                        applySettings();
+                        loadFeed();
+                    }
+                }
+            };
+
+    /**
+     * Load the next (or previous) page before the user reaches the end of the list
+     */
+    private final RecyclerView.OnScrollListener pageScrollListener = new RecyclerView.OnScrollListener() {
+        @Override
+        public void onScrollStateChanged(RecyclerView recyclerView, int scrollState) {
+            if (scrollState != RecyclerView.SCROLL_STATE_IDLE) {
+                failedPage = 0;
+            }
+        }
 
-            // If there is a valid list of {@link News}s, then add them to the adapter's
-            // data set. This will trigger the ListView to update.
-            if (news != null && !news.isEmpty()) {
-                newsAdapter.addAll(news);
+        @Override
+        public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+            int totalItemCount = layoutManager.getItemCount();
+            if (searchQuery != null || newsPager.isEmpty() || totalItemCount == 0) {
+                return;
+            }
+            // Start loading when less than half a page is left to scroll
+            int prefetchDistance = newsPager.getPageSize() / 2;
+            if (layoutManager.findLastVisibleItemPosition() >= totalItemCount - 1 - prefetchDistance
+                    && newsPager.hasNextPage()) {
+                loadPage(newsPager.getLastPage() + 1);
+            } else if (layoutManager.findFirstVisibleItemPosition() <= prefetchDistance
+                    && newsPager.hasPreviousPage()) {
+                loadPage(newsPager.getFirstPage() - 1);
             }
         }
+    };
+
+    /**
+     * Search as the user types, the feed comes back when the search is closed
+     */
+    private final SearchView.OnQueryTextListener searchQueryListener = new SearchView.OnQueryTextListener() {
+        @Override
+        public boolean onQueryTextSubmit(String query) {
+            search(query);
+            return true;
+        }
 
         @Override
-        public void onLoaderReset(Loader<List<News>> loader) {
-            // Loader reset, so we can clear out our existing data.
-            newsAdapter.clear();
+        public boolean onQueryTextChange(String newText) {
+            search(newText);
+            return true;
         }
     };
 
@@ -102,27 +270,18 @@ public class NewsActivity extends AppCompatActivity {
         setContentView(R.layout.news_list);
         //Set context
 
-        // Find a reference to the {@link ListView} in the layout
-        ListView newsListView = findViewById(R.id.list);
+        // Find a reference to the {@link RecyclerView} in the layout
+        newsRecyclerView = findViewById(R.id.list);
+        layoutManager = new LinearLayoutManager(this);
+        newsRecyclerView.setLayoutManager(layoutManager);
 
         noNewsStateTextView = findViewById(R.id.no_news_view);
-        newsListView.setEmptyView(noNewsStateTextView);
 
-        // Create a new adapter that takes the list of earthquakes as input
-        newsAdapter = new NewsAdapter(this, new ArrayList<News>());
-
-        // Set the adapter on the {@link ListView}
-        // so the list can be populated in the user interface
-        newsListView.setAdapter(newsAdapter);
-
-        // Set an item click listener on the ListView, which sends an intent to a web browser
-        // to open a website with more information about the selected news.
-        newsListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        // Create a new adapter which sends an intent to a web browser to open a website with
+        // more information about the news that was clicked on.
+        newsAdapter = new NewsAdapter(ThumbnailLoader.getInstance(this), new NewsAdapter.OnNewsClickListener() {
             @Override
-            public void onItemClick(AdapterView<?> adapterView, View view, int position, long l) {
-                // Find the current news that was clicked on
-                News currentNews = newsAdapter.getItem(position);
-
+            public void onNewsClick(News currentNews) {
                 // Convert the String URL into a URI object (to pass into the Intent constructor)
                 Uri newsUri = Uri.parse(currentNews.getArticleUrl());
 
@@ -134,6 +293,202 @@ public class NewsActivity extends AppCompatActivity {
             }
         });
 
+        // Set the adapter on the {@link RecyclerView}
+        // so the list can be populated in the user interface
+        newsRecyclerView.setAdapter(newsAdapter);
+
+        // Keep the pages loaded so far, and the loads still running, if the activity is
+        // only being recreated
+        RetainedState retainedState = (RetainedState) getLastCustomNonConfigurationInstance();
+        if (retainedState == null) {
+            newsPager = new NewsPager(NewsQuery.getPageSize(this), MAX_PAGES_IN_MEMORY);
+            feedKey = NewsQuery.getCacheKey(buildNewsUrls(1));
+            recentPagers = createRecentPagers();
+            loadSession = new NewsLoadSession();
+            showSyncedNews();
+        } else {
+            newsPager = retainedState.newsPager;
+            feedKey = retainedState.feedKey;
+            recentPagers = retainedState.recentPagers;
+            loadSession = retainedState.loadSession;
+            showNews(newsPager.getNews());
+        }
+        newsRecyclerView.addOnScrollListener(pageScrollListener);
+
+        // The results are delivered to this activity while it is started
+        loadSession.attach(this, loadCallbacks);
+
+        PreferenceManager.getDefaultSharedPreferences(this)
+                .registerOnSharedPreferenceChangeListener(preferenceListener);
+
+        // Keep the cache warm for the next launch
+        NewsSyncScheduler.schedule(this);
+    }
+
+    //Returns an empty map of the pagers left behind, which forgets the least recently shown
+    //feed once there are too many
+    private static Map<String, NewsPager> createRecentPagers() {
+        return new LinkedHashMap<String, NewsPager>(MAX_RECENT_FEEDS + 1, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, NewsPager> eldest) {
+                return size() > MAX_RECENT_FEEDS;
+            }
+        };
+    }
+
+    //Show the feed of the current settings, if they changed. The pager of the feed left behind
+    //is kept for a while, so switching back to it shows its pages straight away; a feed not
+    //shown recently starts from its stored first page. Running loads of the old feed are
+    //cancelled by the next loadFeed().
+    private void applySettings() {
+        int pageSize = NewsQuery.getPageSize(this);
+        String key = NewsQuery.getCacheKey(NewsQuery.buildNewsUrls(this, pageSize, 1));
+        if (key.equals(feedKey)) {
+            return;
+        }
+        recentPagers.put(feedKey, newsPager);
+        loadSession.cancel(NEWS_PAGE_GETTER_ID);
+        loadingPage = 0;
+        failedPage = 0;
+
+        feedKey = key;
+        newsPager = recentPagers.remove(key);
+        if (newsPager == null) {
+            newsPager = new NewsPager(pageSize, MAX_PAGES_IN_MEMORY);
+        }
+        layoutManager.scrollToPosition(0);
+        if (newsPager.isEmpty()) {
+            showNews(Collections.<News>emptyList());
+            findViewById(R.id.loading_indicator).setVisibility(View.VISIBLE);
+            showSyncedNews();
+        } else {
+            showNews(newsPager.getNews());
+        }
+    }
+
+    //Show the first page stored by the background sync (or a previous load) right away. It is a
+    //small indexed read, so the first headlines do not wait for the network; the load
+    //refreshes them if they are stale.
+    private void showSyncedNews() {
+        List<News> storedNews = NewsStore.getInstance(this).queryPageAfter(
+                NewsQuery.getSectionIds(buildNewsUrls(1)), newsPager.getPageSize(), null);
+        if (!storedNews.isEmpty() && newsPager.putPage(1, storedNews)) {
+            findViewById(R.id.loading_indicator).setVisibility(View.GONE);
+            showNews(newsPager.getNews());
+        }
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        // In case the settings changed while the listener was not registered
+        applySettings();
+        // The feed is loaded even without a connection, because it can still show the news
+        // cached by a previous load
+        loadFeed();
+    }
+
+    @Override
+    public Object onRetainCustomNonConfigurationInstance() {
+        return new RetainedState(newsPager, feedKey, recentPagers, loadSession);
+    }
+
+    //Load the first page of the feed, unless it is already being loaded with the current
+    //settings. A load for settings that changed meanwhile is cancelled, aborting its download.
+    private void loadFeed() {
+        List<String> newsUrls = buildNewsUrls(1);
+        NewsLoadTask running = (NewsLoadTask) loadSession.getTask(NEWS_GETTER_ID);
+        if (running != null) {
+            if (running.getSectionUrls().equals(newsUrls)) {
+                return;
+            }
+            // The pages being loaded are for the old settings too
+            loadSession.cancel(NEWS_PAGE_GETTER_ID);
+            loadingPage = 0;
+        }
+        loadSession.start(NEWS_GETTER_ID, new NewsLoadTask(this, newsUrls, 1, newsPager.getPageSize(),
+                null, null));
+    }
+
+    //Build the query URLs for one page of news, using the settings chosen by the user
+    private List<String> buildNewsUrls(int page) {
+        return NewsQuery.buildNewsUrls(this, newsPager.getPageSize(), page);
+    }
+
+    //Start loading a page next to the window, unless one is already being loaded. The stored
+    //page is read from the news next to it, so it follows on from what is shown.
+    private void loadPage(int page) {
+        if (loadingPage != 0 || page == failedPage || newsPager.hasPage(page)) {
+            return;
+        }
+        loadingPage = page;
+        News after = null;
+        News before = null;
+        if (page > newsPager.getLastPage()) {
+            after = newsPager.getLastNews();
+        } else if (page > 1) {
+            before = newsPager.getFirstNews();
+        }
+        loadSession.start(NEWS_PAGE_GETTER_ID, new NewsLoadTask(this, buildNewsUrls(page), page,
+                newsPager.getPageSize(), after, before));
+    }
+
+    //Hand the news to the adapter, which works out on a background thread what changed.
+    //While searching, the feed is only updated behind the search results.
+    private void showNews(List<News> news) {
+        shownNews = news;
+        if (searchQuery == null) {
+            newsAdapter.submitList(news);
+            updateEmptyState();
+        }
+    }
+
+    //Search the stored news for the text, an empty text shows the feed again
+    private void search(String query) {
+        if (NewsStore.buildMatchQuery(query) == null) {
+            showFeed();
+            return;
+        }
+        searchQuery = query;
+        loadSession.start(NEWS_SEARCH_ID, new NewsSearchTask(this, query));
+    }
+
+    //Show the stored news matching the search
+    private void onSearchFinished(List<News> news) {
+        // The search may have been closed in the meantime
+        if (searchQuery == null) {
+            return;
+        }
+        searchResults = news;
+        newsAdapter.submitList(news);
+        updateEmptyState();
+    }
+
+    //Leave the search and show the feed
+    private void showFeed() {
+        if (searchQuery == null) {
+            return;
+        }
+        searchQuery = null;
+        searchResults = Collections.emptyList();
+        loadSession.cancel(NEWS_SEARCH_ID);
+        newsAdapter.submitList(shownNews);
+        updateEmptyState();
+    }
+
+    //Show the empty state text only when there are no news to show
+    private void updateEmptyState() {
+        if (searchQuery != null) {
+            noNewsStateTextView.setText(R.string.no_search_results);
+            noNewsStateTextView.setVisibility(searchResults.isEmpty() ? View.VISIBLE : View.GONE);
+        } else {
+            noNewsStateTextView.setText(emptyFeedText);
+            noNewsStateTextView.setVisibility(shownNews.isEmpty() ? View.VISIBLE : View.GONE);
+        }
+    }
+
+    //Returns true if there is a network connection
+    private boolean isConnected() {
         // Get a reference to the ConnectivityManager to check state of network connectivity
         ConnectivityManager connMgr = (ConnectivityManager)
                 getSystemService(Context.CONNECTIVITY_SERVICE);
@@ -141,28 +496,43 @@ public class NewsActivity extends AppCompatActivity {
         // Get details on the currently active default data network
         NetworkInfo networkInfo = connMgr.getActiveNetworkInfo();
 
-        // If there is a network connection, fetch data
-        if (networkInfo != null && networkInfo.isConnected()) {
-            // Get a reference to the LoaderManager, in order to interact with loaders.
-            LoaderManager loaderManager = getLoaderManager();
-
-            // Initialize the loaders. Pass in the int ID constant defined above and pass in null for
-            // the bundle. Pass in this activity for the LoaderCallbacks parameter (which is valid
-            // because this activity implements the LoaderCallbacks interface).
-            loaderManager.initLoader(NEWS_GETTER_ID, null, newsGetter);
-        } else {
-            // Otherwise, display error
-            // First, hide loading indicator so error message will be visible
-            View loadingIndicator = findViewById(R.id.loading_indicator);
-            loadingIndicator.setVisibility(View.GONE);
+        return networkInfo != null && networkInfo.isConnected();
+    }
 
-            // Update empty state with no connection error message
-            noNewsStateTextView.setText(R.string.please_connect);
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        PreferenceManager.getDefaultSharedPreferences(this)
+                .unregisterOnSharedPreferenceChangeListener(preferenceListener);
+        // The user left, so whatever is still loading is not wanted any more. Across a
+        // configuration change the loads carry on for the next activity.
+        if (!isChangingConfigurations()) {
+            loadSession.cancelAll();
         }
     }
 
     public boolean onCreateOptionsMenu(Menu menu) {
         getMenuInflater().inflate(R.menu.main, menu);
+
+        MenuItem searchItem = menu.findItem(R.id.action_search);
+        SearchView searchView = (SearchView) searchItem.getActionView();
+        searchView.setQueryHint(getString(R.string.search_hint));
+        searchView.setOnQueryTextListener(searchQueryListener);
+        searchItem.setOnActionExpandListener(new MenuItem.OnActionExpandListener() {
+            @Override
+            public boolean onMenuItemActionExpand(MenuItem item) {
+                return true;
+            }
+
+            @Override
+            public boolean onMenuItemActionCollapse(MenuItem item) {
+                showFeed();
+                return true;
+            }
+        });
+
+        //The metrics screen is a tool for developers
+        menu.findItem(R.id.action_metrics).setVisible(BuildConfig.DEBUG);
         return true;
     }
 
@@ -174,7 +544,30 @@ public class NewsActivity extends AppCompatActivity {
             Intent settingsIntent = new Intent(this, SettingsActivity.class);
             startActivity(settingsIntent);
             return true;
+        } else if (id == R.id.action_metrics) {
+            startActivity(new Intent(this, MetricsActivity.class));
+            return true;
         }
         return super.onOptionsItemSelected(item);
     }
+
+    //What is kept while the activity is recreated after a configuration change
+    private static final class RetainedState {
+
+        final NewsPager newsPager;
+
+        final String feedKey;
+
+        final Map<String, NewsPager> recentPagers;
+
+        final NewsLoadSession loadSession;
+
+        RetainedState(NewsPager newsPager, String feedKey, Map<String, NewsPager> recentPagers,
+                      NewsLoadSession loadSession) {
+            this.newsPager = newsPager;
+            this.feedKey = feedKey;
+            this.recentPagers = recentPagers;
+            this.loadSession = loadSession;
+        }
+    }
 }
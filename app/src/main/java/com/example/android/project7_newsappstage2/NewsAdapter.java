@@ -1,74 +1,171 @@
 package com.example.android.project7_newsappstage2;
 
-import android.content.Context;
+import android.graphics.Paint;
 import android.support.annotation.NonNull;
-import android.support.annotation.Nullable;
-import android.text.SpannableString;
-import android.text.style.UnderlineSpan;
+import android.support.v7.recyclerview.extensions.ListAdapter;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
+import android.text.TextUtils;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
+import android.widget.ImageView;
 import android.widget.TextView;
 
-import java.util.List;
-
 /**
  * An {@link NewsAdapter} knows how to create a list item layout for each news
  * in the data source (a list of {@link News} objects).
  * <p>
- * These list item layouts will be provided to an adapter view like ListView
- * to be displayed to the user.
+ * These list item layouts will be provided to a RecyclerView to be displayed to the user.
+ * Every new list is compared with the one shown on a background thread, using the article
+ * URL as the identity, so only the rows that really changed are rebound and animated.
  */
-public class NewsAdapter extends ArrayAdapter<News> {
+public class NewsAdapter extends ListAdapter<News, NewsAdapter.NewsViewHolder> {
+
+    /**
+     * Receives the news that was clicked on
+     */
+    public interface OnNewsClickListener {
+        void onNewsClick(News news);
+    }
+
+    /**
+     * Two news are the same article if they have the same web address
+     */
+    private static final DiffUtil.ItemCallback<News> DIFF_CALLBACK = new DiffUtil.ItemCallback<News>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull News oldNews, @NonNull News newNews) {
+            return TextUtils.equals(oldNews.getArticleUrl(), newNews.getArticleUrl());
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull News oldNews, @NonNull News newNews) {
+            return oldNews.getPublicationTime() == newNews.getPublicationTime()
+                    && TextUtils.equals(oldNews.getArticleTitle(), newNews.getArticleTitle())
+                    && TextUtils.equals(oldNews.getArticleCategory(), newNews.getArticleCategory())
+                    && TextUtils.equals(oldNews.getArticleAuthor(), newNews.getArticleAuthor())
+                    && TextUtils.equals(oldNews.getThumbnailUrl(), newNews.getThumbnailUrl());
+        }
+    };
+
+    private final ThumbnailLoader thumbnailLoader;
+
+    private final OnNewsClickListener clickListener;
 
     /**
      * Construct a new (@link NewsAdapter).
      *
-     * @param context of the app
-     * @param news    is the list of news, which is the data source from the adapter
+     * @param thumbnailLoader loads the thumbnails of the news
+     * @param clickListener   receives the news the user clicks on
      */
-    public NewsAdapter(Context context, List<News> news) {
-        super(context, 0, news);
+    NewsAdapter(ThumbnailLoader thumbnailLoader, OnNewsClickListener clickListener) {
+        super(DIFF_CALLBACK);
+        this.thumbnailLoader = thumbnailLoader;
+        this.clickListener = clickListener;
+        setHasStableIds(true);
     }
 
     /**
-     * Returns a list item view that displays information about the news at the given position
-     * in the list of news.
+     * Returns an id derived from the article URL, so it stays the same across loads.
      */
-    @NonNull
     @Override
-    public View getView(int position, @Nullable View convertView, @NonNull ViewGroup parent) {
-        // Check if there is an existing list item view (called convertView) that we can reuse,
-        // otherwise, if convertView is null, then inflate a new list item layout.
-        View listItemView = convertView;
-        if (listItemView == null) {
-            listItemView = LayoutInflater.from(getContext()).inflate(
-                    R.layout.news_list_item, parent, false);
+    public long getItemId(int position) {
+        String url = getItem(position).getArticleUrl();
+        if (url == null) {
+            return RecyclerView.NO_ID;
+        }
+        // 64 bit FNV-1a hash of the URL
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < url.length(); i++) {
+            hash ^= url.charAt(i);
+            hash *= 0x100000001b3L;
         }
+        return hash;
+    }
 
+    @NonNull
+    @Override
+    public NewsViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View listItemView = LayoutInflater.from(parent.getContext()).inflate(
+                R.layout.news_list_item, parent, false);
+        return new NewsViewHolder(listItemView);
+    }
+
+    /**
+     * Displays information about the news at the given position in the list of news.
+     */
+    @Override
+    public void onBindViewHolder(@NonNull NewsViewHolder holder, int position) {
+        long start = System.nanoTime();
         News currentNews = getItem(position);
-        String date = currentNews.getArticleDate();
-        String author = currentNews.getArticleAuthor();
+        holder.news = currentNews;
 
         //Set the section in the Section TextView
-        TextView sectionTextView = listItemView.findViewById(R.id.article_category);
-        sectionTextView.setText(currentNews.getArticleCategory());
+        holder.sectionTextView.setText(currentNews.getArticleCategory());
 
         //Set the title TextView with the headline.
-        TextView titleTextView = listItemView.findViewById(R.id.article_title);
-        titleTextView.setText(currentNews.getArticleTitle());
+        holder.titleTextView.setText(currentNews.getArticleTitle());
 
         //Set the date TextView by checking its availability and adjust layout accordingly
-        TextView dateTextView = listItemView.findViewById(R.id.article_date);
-        getDateTextView(dateTextView, date);
+        getDateTextView(holder.dateTextView, currentNews);
 
         //Set the author TextView by checking its availability and adjust layout accordingly
-        TextView authorTextView = listItemView.findViewById(R.id.article_author);
-        getAuthorTextView(authorTextView, author);
+        getAuthorTextView(holder.authorTextView, currentNews.getArticleAuthor());
 
-        return listItemView;
+        //Load the thumbnail, the ImageView is taken out if there is none
+        thumbnailLoader.load(currentNews.getThumbnailUrl(), holder.thumbnailImageView);
 
+        NewsMetrics.record(NewsMetrics.STAGE_BIND, start);
+    }
+
+    /**
+     * The item is about to be reused for another news, so its thumbnail is no longer needed.
+     */
+    @Override
+    public void onViewRecycled(@NonNull NewsViewHolder holder) {
+        thumbnailLoader.cancel(holder.thumbnailImageView);
+    }
+
+    /**
+     * Holds the views of a list item, so binding a recycled item needs no view lookups.
+     */
+    final class NewsViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
+
+        final TextView sectionTextView;
+
+        final TextView titleTextView;
+
+        final TextView dateTextView;
+
+        final TextView authorTextView;
+
+        final ImageView thumbnailImageView;
+
+        /**
+         * The news currently bound to this item
+         */
+        News news;
+
+        NewsViewHolder(View listItemView) {
+            super(listItemView);
+            sectionTextView = listItemView.findViewById(R.id.article_category);
+            titleTextView = listItemView.findViewById(R.id.article_title);
+            dateTextView = listItemView.findViewById(R.id.article_date);
+            authorTextView = listItemView.findViewById(R.id.article_author);
+            thumbnailImageView = listItemView.findViewById(R.id.article_thumbnail);
+
+            //The date is always underlined, so the paint does it instead of a span per bind
+            dateTextView.setPaintFlags(dateTextView.getPaintFlags() | Paint.UNDERLINE_TEXT_FLAG);
+
+            listItemView.setOnClickListener(this);
+        }
+
+        @Override
+        public void onClick(View view) {
+            if (news != null && clickListener != null) {
+                clickListener.onNewsClick(news);
+            }
+        }
     }
 
     //This will check if the author is available and set it.
@@ -83,17 +180,15 @@ public class NewsAdapter extends ArrayAdapter<News> {
     }
 
     //This will check if the date is available and set it.
-    //If it is not, then take out the whole date TextView from the list_item
-    private void getDateTextView(TextView dateTextView, String date) {
+    //If it is not, then take out the whole date TextView from the list_item.
+    //The date is only formatted here, when the news is shown.
+    private void getDateTextView(TextView dateTextView, News news) {
+        String date = news.getArticleDate();
         if (date == null) {
             dateTextView.setVisibility(View.GONE);
         } else {
             dateTextView.setVisibility(View.VISIBLE);
-
-            //The following to set underline on the date text and set it to the date TextView
-            SpannableString finalDate = new SpannableString(date);
-            finalDate.setSpan(new UnderlineSpan(), 0, finalDate.length(), 0);
-            dateTextView.setText(finalDate);
+            dateTextView.setText(date);
         }
     }
 }
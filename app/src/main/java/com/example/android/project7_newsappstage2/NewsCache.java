@@ -0,0 +1,233 @@
+package com.example.android.project7_newsappstage2;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the parsed {@link News} of every query on disk, keyed by the full query URL.
+ * <p>
+ * Records are stored in a compact binary format instead of the raw JSON: a small header
+ * followed by, for every article, a presence byte, the publication time and the article
+ * strings that are present, so missing authors or dates cost nothing.
+ */
+final class NewsCache {
+
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = NewsCache.class.getName();
+
+    /**
+     * Cached news younger than this are served without asking the network
+     */
+    static final long TIME_TO_LIVE_MILLIS = 10 * 60 * 1000;
+
+    /**
+     * Maximum number of bytes used on disk before old queries are evicted
+     */
+    private static final long MAX_SIZE_BYTES = 512 * 1024;
+
+    private static final String DIRECTORY_NAME = "news";
+
+    /**
+     * Identifies a news record, followed by the record version
+     */
+    private static final int MAGIC = 0x4e455753;
+
+    private static final int VERSION = 6;
+
+    private static final int HAS_CATEGORY = 1;
+    private static final int HAS_TITLE = 1 << 1;
+    private static final int HAS_AUTHOR = 1 << 2;
+    private static final int HAS_URL = 1 << 3;
+    private static final int HAS_THUMBNAIL = 1 << 4;
+    private static final int HAS_SECTION_ID = 1 << 5;
+
+    private static NewsCache instance;
+
+    /**
+     * A cached result and the time it was stored
+     */
+    static final class Entry {
+
+        final List<News> news;
+
+        final long savedAt;
+
+        /**
+         * When the whole result was last downloaded, before any {@link DeltaSync} refresh
+         */
+        final long downloadedAt;
+
+        Entry(List<News> news, long savedAt) {
+            this(news, savedAt, savedAt);
+        }
+
+        Entry(List<News> news, long savedAt, long downloadedAt) {
+            this.news = news;
+            this.savedAt = savedAt;
+            this.downloadedAt = downloadedAt;
+        }
+
+        /**
+         * Returns true if the entry is young enough to be shown without refreshing it
+         */
+        boolean isFresh() {
+            long age = System.currentTimeMillis() - savedAt;
+            return age >= 0 && age < TIME_TO_LIVE_MILLIS;
+        }
+    }
+
+    private final DiskCache diskCache;
+
+    /**
+     * Returns the cache shared by the whole app.
+     */
+    static synchronized NewsCache getInstance(Context context) {
+        if (instance == null) {
+            File directory = new File(context.getApplicationContext().getCacheDir(), DIRECTORY_NAME);
+            instance = new NewsCache(new DiskCache(directory, MAX_SIZE_BYTES));
+        }
+        return instance;
+    }
+
+    NewsCache(DiskCache diskCache) {
+        this.diskCache = diskCache;
+    }
+
+    /**
+     * Returns the news stored for the query URL, or null if there are none.
+     */
+    Entry get(String url) {
+        byte[] data = diskCache.get(url);
+        if (data == null) {
+            return null;
+        }
+        try {
+            return decode(data);
+        } catch (IOException e) {
+            // An unreadable record is useless, so get rid of it
+            Log.e(LOG_TAG, "Error decoding cached news", e);
+            diskCache.remove(url);
+            return null;
+        }
+    }
+
+    /**
+     * Store the news returned for the query URL.
+     */
+    void put(String url, List<News> news) {
+        long now = System.currentTimeMillis();
+        put(url, news, now, now);
+    }
+
+    /**
+     * Store a feed merged from the sections that could be fetched while others failed. It is
+     * not marked as brought up to date, so it is refreshed on the next load instead of hiding
+     * the new articles of the failed sections until it expires.
+     *
+     * @param cached       is the entry the feed replaces, may be null
+     * @param downloadedAt is when the whole result was last downloaded
+     */
+    void putPartial(String url, List<News> news, Entry cached, long downloadedAt) {
+        put(url, news, cached != null ? cached.savedAt : 0, downloadedAt);
+    }
+
+    /**
+     * Store the news returned for the query URL, made of news downloaded at different times.
+     *
+     * @param savedAt      is when the news were last brought up to date
+     * @param downloadedAt is when the whole result was last downloaded
+     */
+    void put(String url, List<News> news, long savedAt, long downloadedAt) {
+        try {
+            diskCache.put(url, encode(news, savedAt, downloadedAt));
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error encoding news", e);
+        }
+    }
+
+    static byte[] encode(List<News> news, long savedAt, long downloadedAt) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(news.size() * 160 + 32);
+        DataOutputStream output = new DataOutputStream(bytes);
+
+        output.writeInt(MAGIC);
+        output.writeByte(VERSION);
+        output.writeLong(savedAt);
+        output.writeLong(downloadedAt);
+        output.writeInt(news.size());
+
+        for (News newsItem : news) {
+            String sectionId = newsItem.getSectionId();
+            String category = newsItem.getArticleCategory();
+            String title = newsItem.getArticleTitle();
+            String author = newsItem.getArticleAuthor();
+            String url = newsItem.getArticleUrl();
+            String thumbnailUrl = newsItem.getThumbnailUrl();
+
+            int flags = 0;
+            flags |= category != null ? HAS_CATEGORY : 0;
+            flags |= title != null ? HAS_TITLE : 0;
+            flags |= author != null ? HAS_AUTHOR : 0;
+            flags |= url != null ? HAS_URL : 0;
+            flags |= thumbnailUrl != null ? HAS_THUMBNAIL : 0;
+            flags |= sectionId != null ? HAS_SECTION_ID : 0;
+            output.writeByte(flags);
+            output.writeLong(newsItem.getPublicationTime());
+
+            writeIfPresent(output, category);
+            writeIfPresent(output, title);
+            writeIfPresent(output, author);
+            writeIfPresent(output, url);
+            writeIfPresent(output, thumbnailUrl);
+            writeIfPresent(output, sectionId);
+        }
+
+        output.flush();
+        return bytes.toByteArray();
+    }
+
+    static Entry decode(byte[] data) throws IOException {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(data));
+
+        if (input.readInt() != MAGIC || input.readByte() != VERSION) {
+            throw new IOException("Unknown news record");
+        }
+        long savedAt = input.readLong();
+        long downloadedAt = input.readLong();
+        int count = input.readInt();
+        if (count < 0) {
+            throw new IOException("Corrupt news record");
+        }
+
+        List<News> news = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int flags = input.readUnsignedByte();
+            long publicationTime = input.readLong();
+            String category = (flags & HAS_CATEGORY) != 0 ? input.readUTF() : null;
+            String title = (flags & HAS_TITLE) != 0 ? input.readUTF() : null;
+            String author = (flags & HAS_AUTHOR) != 0 ? input.readUTF() : null;
+            String url = (flags & HAS_URL) != 0 ? input.readUTF() : null;
+            String thumbnailUrl = (flags & HAS_THUMBNAIL) != 0 ? input.readUTF() : null;
+            String sectionId = (flags & HAS_SECTION_ID) != 0 ? input.readUTF() : null;
+            news.add(new News(sectionId, category, title, author, url, publicationTime, thumbnailUrl));
+        }
+
+        return new Entry(news, savedAt, downloadedAt);
+    }
+
+    private static void writeIfPresent(DataOutputStream output, String value) throws IOException {
+        if (value != null) {
+            output.writeUTF(value);
+        }
+    }
+}
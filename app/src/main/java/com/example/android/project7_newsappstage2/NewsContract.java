@@ -0,0 +1,72 @@
+package com.example.android.project7_newsappstage2;
+
+import android.provider.BaseColumns;
+
+/**
+ * Names of the tables and columns of the article database.
+ */
+final class NewsContract {
+
+    /**
+     * No one should create a {@link NewsContract} object, it only holds constants.
+     */
+    private NewsContract() {
+    }
+
+    /**
+     * Every article that was ever loaded, one row per web address.
+     */
+    static final class ArticleEntry implements BaseColumns {
+
+        static final String TABLE_NAME = "articles";
+
+        /**
+         * The section id used in the section query parameter, the list is queried by it
+         */
+        static final String COLUMN_SECTION_ID = "section_id";
+
+        static final String COLUMN_CATEGORY = "category";
+
+        static final String COLUMN_TITLE = "title";
+
+        static final String COLUMN_AUTHOR = "author";
+
+        /**
+         * The web address of the article, an article is only stored once
+         */
+        static final String COLUMN_URL = "url";
+
+        /**
+         * Publication time in milliseconds since the epoch, 0 if unknown
+         */
+        static final String COLUMN_PUBLISHED = "published";
+
+        static final String COLUMN_THUMBNAIL_URL = "thumbnail_url";
+
+        /**
+         * Serves the list: the articles of a section, newest first
+         */
+        static final String INDEX_SECTION_PUBLISHED = "articles_section_published";
+
+        private ArticleEntry() {
+        }
+    }
+
+    /**
+     * Full text index of the searchable columns of {@link ArticleEntry}, its docid is the
+     * article row id. Triggers on the article table keep it up to date.
+     */
+    static final class SearchEntry {
+
+        static final String TABLE_NAME = "articles_fts";
+
+        static final String COLUMN_TITLE = "title";
+
+        static final String COLUMN_CATEGORY = "category";
+
+        static final String COLUMN_AUTHOR = "author";
+
+        private SearchEntry() {
+        }
+    }
+}
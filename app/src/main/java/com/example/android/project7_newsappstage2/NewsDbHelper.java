@@ -0,0 +1,71 @@
+package com.example.android.project7_newsappstage2;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import com.example.android.project7_newsappstage2.NewsContract.ArticleEntry;
+import com.example.android.project7_newsappstage2.NewsContract.SearchEntry;
+
+/**
+ * Creates and upgrades the article database.
+ */
+final class NewsDbHelper extends SQLiteOpenHelper {
+
+    private static final String DATABASE_NAME = "news.db";
+
+    private static final int DATABASE_VERSION = 2;
+
+    private static final String INSERT_SEARCH_ENTRY = "INSERT INTO " + SearchEntry.TABLE_NAME
+            + " (docid, " + SearchEntry.COLUMN_TITLE + ", " + SearchEntry.COLUMN_CATEGORY + ", "
+            + SearchEntry.COLUMN_AUTHOR + ") VALUES (new." + ArticleEntry._ID + ", new."
+            + ArticleEntry.COLUMN_TITLE + ", new." + ArticleEntry.COLUMN_CATEGORY + ", new."
+            + ArticleEntry.COLUMN_AUTHOR + ");";
+
+    private static final String DELETE_SEARCH_ENTRY = "DELETE FROM " + SearchEntry.TABLE_NAME
+            + " WHERE docid = old." + ArticleEntry._ID + ";";
+
+    NewsDbHelper(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + ArticleEntry.TABLE_NAME + " ("
+                + ArticleEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + ArticleEntry.COLUMN_SECTION_ID + " TEXT, "
+                + ArticleEntry.COLUMN_CATEGORY + " TEXT, "
+                + ArticleEntry.COLUMN_TITLE + " TEXT, "
+                + ArticleEntry.COLUMN_AUTHOR + " TEXT, "
+                + ArticleEntry.COLUMN_URL + " TEXT NOT NULL UNIQUE, "
+                + ArticleEntry.COLUMN_PUBLISHED + " INTEGER NOT NULL DEFAULT 0, "
+                + ArticleEntry.COLUMN_THUMBNAIL_URL + " TEXT)");
+
+        db.execSQL("CREATE INDEX " + ArticleEntry.INDEX_SECTION_PUBLISHED + " ON "
+                + ArticleEntry.TABLE_NAME + " ("
+                + ArticleEntry.COLUMN_SECTION_ID + ", "
+                + ArticleEntry.COLUMN_PUBLISHED + " DESC)");
+
+        // FTS4 keeps its own copy of the text, external content tables need a newer SQLite
+        db.execSQL("CREATE VIRTUAL TABLE " + SearchEntry.TABLE_NAME + " USING fts4("
+                + SearchEntry.COLUMN_TITLE + ", "
+                + SearchEntry.COLUMN_CATEGORY + ", "
+                + SearchEntry.COLUMN_AUTHOR + ")");
+
+        // The index is updated inside the same transaction as the articles themselves
+        db.execSQL("CREATE TRIGGER articles_fts_insert AFTER INSERT ON " + ArticleEntry.TABLE_NAME
+                + " BEGIN " + INSERT_SEARCH_ENTRY + " END");
+        db.execSQL("CREATE TRIGGER articles_fts_update AFTER UPDATE ON " + ArticleEntry.TABLE_NAME
+                + " BEGIN " + DELETE_SEARCH_ENTRY + " " + INSERT_SEARCH_ENTRY + " END");
+        db.execSQL("CREATE TRIGGER articles_fts_delete AFTER DELETE ON " + ArticleEntry.TABLE_NAME
+                + " BEGIN " + DELETE_SEARCH_ENTRY + " END");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // The database only holds downloaded articles, so it is simply rebuilt
+        db.execSQL("DROP TABLE IF EXISTS " + SearchEntry.TABLE_NAME);
+        db.execSQL("DROP TABLE IF EXISTS " + ArticleEntry.TABLE_NAME);
+        onCreate(db);
+    }
+}
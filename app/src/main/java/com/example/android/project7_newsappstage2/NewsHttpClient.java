@@ -0,0 +1,545 @@
+package com.example.android.project7_newsappstage2;
+
+import android.util.Log;
+
+import com.google.gson.stream.MalformedJsonException;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Fetches and parses HTTP responses for {@link QueryUtils}.
+ * <p>
+ * Responses are requested gzip compressed, and the ETag/Last-Modified validators of every URL
+ * are remembered together with the parsed result, so repeating a request only costs a
+ * 304 Not Modified. Bodies are always read to the end and closed instead of disconnecting,
+ * which lets {@link HttpURLConnection} keep the connection alive for the next request.
+ * <p>
+ * Requests that fail on the way (network errors, 429 and 5xx responses) are sent again a few
+ * times, after an exponential back off with full jitter. A body that can't be parsed is not
+ * asked for again. The connect and read timeouts follow the recent latencies of their own stage
+ * instead of being fixed, and grow with every retry. When the backend keeps failing a circuit
+ * breaker stops sending requests for a while, and the last value of the URL is returned
+ * straight away instead.
+ */
+final class NewsHttpClient {
+
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = NewsHttpClient.class.getName();
+
+    /**
+     * Timeouts used until enough latencies were recorded
+     */
+    private static final int CONNECT_TIMEOUT_MILLIS = 1500;
+
+    private static final int READ_TIMEOUT_MILLIS = 5000;
+
+    /**
+     * Bounds of the adaptive timeouts
+     */
+    private static final int MIN_CONNECT_TIMEOUT_MILLIS = 1000;
+
+    private static final int MAX_CONNECT_TIMEOUT_MILLIS = 8000;
+
+    private static final int MIN_READ_TIMEOUT_MILLIS = 2000;
+
+    private static final int MAX_READ_TIMEOUT_MILLIS = 20000;
+
+    /**
+     * Number of recent latencies of a stage its timeout is taken from, and how many are needed first
+     */
+    private static final int LATENCY_SAMPLES = 32;
+
+    private static final int MIN_LATENCY_SAMPLES = 8;
+
+    private static final int MAX_ATTEMPTS = 3;
+
+    private static final long BASE_BACKOFF_MILLIS = 250;
+
+    private static final long MAX_BACKOFF_MILLIS = 4000;
+
+    /**
+     * Failed fetches in a row that open the circuit breaker, and how long it stays open
+     */
+    private static final int BREAKER_FAILURE_THRESHOLD = 3;
+
+    private static final long BREAKER_COOL_DOWN_MILLIS = 30000;
+
+    /**
+     * Response code of a fetch that was not sent because the circuit breaker is open
+     */
+    static final int CIRCUIT_OPEN = -2;
+
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    /**
+     * Number of URLs whose validators and parsed result are remembered
+     */
+    private static final int MAX_VALIDATED_URLS = 16;
+
+    /**
+     * Turns a response body into a value, the body is closed by the client.
+     */
+    interface ResponseParser<T> {
+        /**
+         * @param contentLength is the number of bytes in the body, -1 if unknown
+         */
+        T parse(InputStream body, long contentLength) throws IOException;
+    }
+
+    /**
+     * The outcome of a single fetch.
+     */
+    static final class Result<T> {
+
+        /**
+         * The parsed body, or the previous one for a 304, null if the request failed
+         */
+        final T value;
+
+        final int responseCode;
+
+        /**
+         * Bytes received for the body, as sent on the wire (before decompression)
+         */
+        final long bytesReceived;
+
+        /**
+         * Time spent in the fetch, back offs included
+         */
+        final long latencyMillis;
+
+        /**
+         * Number of requests sent, 0 if the circuit breaker was open
+         */
+        final int attempts;
+
+        Result(T value, int responseCode, long bytesReceived, long latencyMillis, int attempts) {
+            this.value = value;
+            this.responseCode = responseCode;
+            this.bytesReceived = bytesReceived;
+            this.latencyMillis = latencyMillis;
+            this.attempts = attempts;
+        }
+
+        boolean isNotModified() {
+            return responseCode == HttpURLConnection.HTTP_NOT_MODIFIED;
+        }
+
+        /**
+         * Returns true if nothing was sent because the backend is down, the value is then the
+         * last one received for the URL, if any.
+         */
+        boolean isCircuitOpen() {
+            return responseCode == CIRCUIT_OPEN;
+        }
+    }
+
+    //The outcome of a single request
+    private static final class Attempt<T> {
+
+        final T value;
+
+        final int responseCode;
+
+        final long bytesReceived;
+
+        /**
+         * True if the request failed in a way that may not happen again
+         */
+        final boolean retryable;
+
+        Attempt(T value, int responseCode, long bytesReceived, boolean retryable) {
+            this.value = value;
+            this.responseCode = responseCode;
+            this.bytesReceived = bytesReceived;
+            this.retryable = retryable;
+        }
+    }
+
+    //The validators sent back by the server and the value parsed from that response
+    private static final class Validated {
+
+        final String eTag;
+
+        final String lastModified;
+
+        final Object value;
+
+        Validated(String eTag, String lastModified, Object value) {
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            this.value = value;
+        }
+    }
+
+    private static final NewsHttpClient INSTANCE = new NewsHttpClient();
+
+    /**
+     * Validated responses by URL, in access order so the oldest one is dropped first
+     */
+    private final Map<String, Validated> validated =
+            new LinkedHashMap<String, Validated>(MAX_VALIDATED_URLS, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Validated> eldest) {
+                    return size() > MAX_VALIDATED_URLS;
+                }
+            };
+
+    private final int maxAttempts;
+
+    private final long baseBackoffMillis;
+
+    /**
+     * Recent times to connect, and from the request to the response code, in milliseconds.
+     * Each drives its own timeout, so a long body does not stretch the connect timeout.
+     */
+    private final LatencyTracker connectLatencies = new LatencyTracker(LATENCY_SAMPLES);
+
+    private final LatencyTracker firstByteLatencies = new LatencyTracker(LATENCY_SAMPLES);
+
+    private final CircuitBreaker circuitBreaker;
+
+    /**
+     * Jitter of the back offs, guarded by itself
+     */
+    private final Random random = new Random();
+
+    NewsHttpClient() {
+        this(MAX_ATTEMPTS, BASE_BACKOFF_MILLIS, BREAKER_COOL_DOWN_MILLIS);
+    }
+
+    NewsHttpClient(int maxAttempts, long baseBackoffMillis, long breakerCoolDownMillis) {
+        this.maxAttempts = maxAttempts;
+        this.baseBackoffMillis = baseBackoffMillis;
+        circuitBreaker = new CircuitBreaker(BREAKER_FAILURE_THRESHOLD, breakerCoolDownMillis);
+    }
+
+    /**
+     * Returns the client shared by the whole app, so validators survive between loads.
+     */
+    static NewsHttpClient getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Perform a GET request and parse its body, sending it again if it fails on the way.
+     * The parser may be called once per attempt.
+     *
+     * @return the result, its value is null if the request failed
+     */
+    <T> Result<T> get(URL url, ResponseParser<T> parser) {
+        return get(url, parser, null);
+    }
+
+    /**
+     * Perform a GET request and parse its body, sending it again if it fails on the way.
+     * The parser may be called once per attempt.
+     *
+     * @param cancellation disconnects the request, even in the middle of reading the body,
+     *                     may be null
+     * @return the result, its value is null if the request failed or was cancelled
+     */
+    @SuppressWarnings("unchecked")
+    <T> Result<T> get(URL url, ResponseParser<T> parser, CancellationToken cancellation) {
+        long start = System.nanoTime();
+        String key = url.toString();
+
+        Validated previous;
+        synchronized (validated) {
+            previous = validated.get(key);
+        }
+
+        if (!circuitBreaker.allowRequest()) {
+            // The backend is down, answer now rather than after another timeout
+            Log.w(LOG_TAG, "Circuit open, not fetching " + key);
+            T value = previous != null ? (T) previous.value : null;
+            return new Result<>(value, CIRCUIT_OPEN, 0, (System.nanoTime() - start) / 1000000, 0);
+        }
+
+        Attempt<T> attempt = null;
+        int attempts = 0;
+        long bytesReceived = 0;
+        while (attempts < maxAttempts && !isCancelled(cancellation)) {
+            if (attempts > 0 && !backOff(attempts)) {
+                break;
+            }
+            attempts++;
+            attempt = attempt(url, key, parser, previous, attempts, cancellation);
+            bytesReceived += attempt.bytesReceived;
+            if (isCancelled(cancellation)) {
+                break;
+            }
+            if (!attempt.retryable) {
+                break;
+            }
+            Log.w(LOG_TAG, "Attempt " + attempts + " of " + key + " failed");
+        }
+
+        if (attempt == null || isCancelled(cancellation)
+                || (attempt.retryable && Thread.currentThread().isInterrupted())) {
+            // Cancelled, which says nothing about the backend
+            circuitBreaker.recordAbandoned();
+        } else if (attempt.retryable) {
+            circuitBreaker.recordFailure();
+        } else {
+            // Even an error response means the backend is up
+            circuitBreaker.recordSuccess();
+        }
+
+        T value = attempt != null ? attempt.value : null;
+        int responseCode = attempt != null ? attempt.responseCode : -1;
+        long latencyMillis = (System.nanoTime() - start) / 1000000;
+        return new Result<>(value, responseCode, bytesReceived, latencyMillis, attempts);
+    }
+
+    //Send the request once
+    @SuppressWarnings("unchecked")
+    private <T> Attempt<T> attempt(URL url, String key, ResponseParser<T> parser,
+                                   Validated previous, int attempt, CancellationToken cancellation) {
+        HttpURLConnection urlConnection = null;
+        CancellationToken.OnCancelListener abort = null;
+        CountingInputStream countingStream = null;
+        int responseCode = -1;
+        long announcedLength = -1;
+        T value = null;
+        boolean retryable = false;
+
+        try {
+            long stageStart = System.nanoTime();
+            urlConnection = (HttpURLConnection) url.openConnection();
+            if (cancellation != null) {
+                // Closes the socket, which makes a blocked connect or read throw straight away
+                final HttpURLConnection connection = urlConnection;
+                abort = new CancellationToken.OnCancelListener() {
+                    @Override
+                    public void onCancel() {
+                        connection.disconnect();
+                    }
+                };
+                cancellation.addOnCancelListener(abort);
+            }
+            urlConnection.setConnectTimeout(getConnectTimeout(attempt));
+            urlConnection.setReadTimeout(getReadTimeout(attempt));
+            urlConnection.setRequestMethod("GET");
+            urlConnection.setRequestProperty("Accept-Encoding", "gzip");
+            if (previous != null) {
+                if (previous.eTag != null) {
+                    urlConnection.setRequestProperty("If-None-Match", previous.eTag);
+                }
+                if (previous.lastModified != null) {
+                    urlConnection.setRequestProperty("If-Modified-Since", previous.lastModified);
+                }
+            }
+            urlConnection.connect();
+            NewsMetrics.record(NewsMetrics.STAGE_CONNECT, stageStart);
+            connectLatencies.record((System.nanoTime() - stageStart) / 1000000);
+
+            stageStart = System.nanoTime();
+            responseCode = urlConnection.getResponseCode();
+            NewsMetrics.record(NewsMetrics.STAGE_FIRST_BYTE, stageStart);
+            firstByteLatencies.record((System.nanoTime() - stageStart) / 1000000);
+            if (responseCode == HttpURLConnection.HTTP_OK) {
+                stageStart = System.nanoTime();
+                countingStream = new CountingInputStream(urlConnection.getInputStream());
+                InputStream body = countingStream;
+                announcedLength = urlConnection.getContentLength();
+                long contentLength = announcedLength;
+                if ("gzip".equalsIgnoreCase(urlConnection.getContentEncoding())) {
+                    body = new GZIPInputStream(countingStream);
+                    // That is the length of the compressed body
+                    contentLength = -1;
+                }
+                value = parser.parse(body, contentLength);
+                drain(body);
+                body.close();
+                NewsMetrics.record(NewsMetrics.STAGE_PARSE, stageStart);
+
+                String eTag = urlConnection.getHeaderField("ETag");
+                String lastModified = urlConnection.getHeaderField("Last-Modified");
+                if (value != null && (eTag != null || lastModified != null)) {
+                    synchronized (validated) {
+                        validated.put(key, new Validated(eTag, lastModified, value));
+                    }
+                }
+            } else if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && previous != null) {
+                value = (T) previous.value;
+                // The empty body still has to be closed for the connection to be reused
+                urlConnection.getInputStream().close();
+            } else {
+                Log.e(LOG_TAG, "Error response code: " + responseCode);
+                closeErrorStream(urlConnection);
+                retryable = responseCode >= HttpURLConnection.HTTP_INTERNAL_ERROR
+                        || responseCode == HTTP_TOO_MANY_REQUESTS;
+            }
+
+        } catch (MalformedJsonException e) {
+            // The backend sent a body that is not JSON, asking again won't help. A body that
+            // ended before its announced length was cut off on the way though, like a reset.
+            e.printStackTrace();
+            value = null;
+            retryable = countingStream.ended && countingStream.count < announcedLength
+                    && !isCancelled(cancellation);
+            urlConnection.disconnect();
+        } catch (IOException e) {
+            // Timeouts, resets and cut off bodies may well not happen again,
+            // unless the request was cut off on purpose
+            value = null;
+            retryable = !isCancelled(cancellation);
+            if (retryable) {
+                e.printStackTrace();
+            }
+            // A connection that failed half way must not be handed to the next request
+            if (urlConnection != null) {
+                urlConnection.disconnect();
+            }
+        } catch (RuntimeException e) {
+            // The body is JSON of an unexpected shape, such as an object where an array was
+            // expected, or a value the parser can't take, asking again won't help either
+            e.printStackTrace();
+            value = null;
+            urlConnection.disconnect();
+        } finally {
+            if (abort != null) {
+                cancellation.removeOnCancelListener(abort);
+            }
+            if (countingStream != null) {
+                try {
+                    countingStream.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        long bytesReceived = countingStream != null ? countingStream.count : 0;
+        return new Attempt<>(value, responseCode, bytesReceived, retryable);
+    }
+
+    private static boolean isCancelled(CancellationToken cancellation) {
+        return cancellation != null && cancellation.isCancelled();
+    }
+
+    //Wait before the given retry, false if the thread was interrupted meanwhile
+    private boolean backOff(int retry) {
+        long ceiling = Math.min(MAX_BACKOFF_MILLIS, baseBackoffMillis << (retry - 1));
+        long delay;
+        synchronized (random) {
+            // Full jitter, so the clients that failed together do not retry together
+            delay = (long) (random.nextDouble() * ceiling);
+        }
+        try {
+            Thread.sleep(delay);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Returns the connect timeout of an attempt: twice the 95th percentile of the recent
+     * connect latencies, doubled for every retry.
+     */
+    int getConnectTimeout(int attempt) {
+        long p95 = getP95(connectLatencies);
+        long timeout = p95 < 0 ? CONNECT_TIMEOUT_MILLIS
+                : clamp(2 * p95, MIN_CONNECT_TIMEOUT_MILLIS, MAX_CONNECT_TIMEOUT_MILLIS);
+        return (int) Math.min(MAX_CONNECT_TIMEOUT_MILLIS, timeout << (attempt - 1));
+    }
+
+    /**
+     * Returns the read timeout of an attempt: four times the 95th percentile of the recent
+     * waits for the first byte, doubled for every retry. The read timeout bounds every wait for
+     * data, not the whole body, so the time to download a long body does not count.
+     */
+    int getReadTimeout(int attempt) {
+        long p95 = getP95(firstByteLatencies);
+        long timeout = p95 < 0 ? READ_TIMEOUT_MILLIS
+                : clamp(4 * p95, MIN_READ_TIMEOUT_MILLIS, MAX_READ_TIMEOUT_MILLIS);
+        return (int) Math.min(MAX_READ_TIMEOUT_MILLIS, timeout << (attempt - 1));
+    }
+
+    //The 95th percentile of the latencies, -1 until there are enough of them
+    private static long getP95(LatencyTracker latencies) {
+        return latencies.size() >= MIN_LATENCY_SAMPLES ? latencies.percentile(0.95) : -1;
+    }
+
+    private static long clamp(long value, long min, long max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    //Read what is left of the body, a connection is only reused once its body was consumed
+    private static void drain(InputStream inputStream) throws IOException {
+        byte[] buffer = new byte[512];
+        while (inputStream.read(buffer) != -1) {
+            // Discard
+        }
+    }
+
+    private static void closeErrorStream(HttpURLConnection urlConnection) {
+        InputStream errorStream = urlConnection.getErrorStream();
+        if (errorStream == null) {
+            return;
+        }
+        try {
+            drain(errorStream);
+            errorStream.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    //Counts the bytes read through it
+    private static final class CountingInputStream extends FilterInputStream {
+
+        long count;
+
+        /**
+         * True once the stream returned its end
+         */
+        boolean ended;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count++;
+            } else {
+                ended = true;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                count += read;
+            } else if (read == -1) {
+                ended = true;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.android.project7_newsappstage2;
+
+import android.os.Process;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The worker threads every load of the news runs on.
+ * <p>
+ * {@code AsyncTaskLoader} runs every load of the app one after the other on a single thread.
+ * Here a few loads run at the same time, so the download of one (the next page, say)
+ * overlaps the parsing and storing of another, and a search is not stuck behind a refresh.
+ * The pool is bounded, so a burst of loads waits in the queue instead of starting threads.
+ * <p>
+ * Cancelling a load closes its connection, which may block on the socket, so that is done on a
+ * thread of its own rather than on the main thread. It can not wait for a worker either, as
+ * the workers may all be blocked in the very reads being aborted.
+ */
+final class NewsLoadEngine {
+
+    /**
+     * Number of loads running at the same time
+     */
+    private static final int WORKERS = 3;
+
+    private static final NewsLoadEngine INSTANCE = new NewsLoadEngine();
+
+    private final ThreadPoolExecutor executor;
+
+    private final ThreadPoolExecutor cancelExecutor;
+
+    private NewsLoadEngine() {
+        executor = new ThreadPoolExecutor(WORKERS, WORKERS, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(final Runnable runnable) {
+                        return new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                // Stay out of the way of the UI thread, as AsyncTask does
+                                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                runnable.run();
+                            }
+                        }, "news-load-" + count.incrementAndGet());
+                    }
+                });
+        // Let the threads die while nothing is being loaded
+        executor.allowCoreThreadTimeOut(true);
+
+        cancelExecutor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        return new Thread(runnable, "news-load-cancel");
+                    }
+                });
+        cancelExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Returns the engine shared by the whole app, so loads of every screen share the bound.
+     */
+    static NewsLoadEngine getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Run the work on a worker thread. Cancelling the future with an interrupt wakes the work
+     * up from any wait, the socket reads are aborted through a {@link CancellationToken}.
+     */
+    Future<?> submit(Runnable work) {
+        return executor.submit(work);
+    }
+
+    /**
+     * Returns the executor the listeners of a cancelled load run on, such as the one closing
+     * its connection.
+     */
+    Executor getCancelExecutor() {
+        return cancelExecutor;
+    }
+}
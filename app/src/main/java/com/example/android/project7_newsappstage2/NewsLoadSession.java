@@ -0,0 +1,328 @@
+package com.example.android.project7_newsappstage2;
+
+import android.arch.lifecycle.Lifecycle;
+import android.arch.lifecycle.LifecycleObserver;
+import android.arch.lifecycle.LifecycleOwner;
+import android.arch.lifecycle.OnLifecycleEvent;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+/**
+ * Runs the loads of a screen on the {@link NewsLoadEngine} and hands their results back, taking
+ * the place of the {@code LoaderManager}.
+ * <p>
+ * Every load has an id, and starting a load cancels the one running with the same id. A
+ * cancelled load stops wherever it is, even in the middle of a download, and nothing of it is
+ * delivered any more. Results are only delivered while the screen is started: anything that
+ * arrives while it is stopped waits and is delivered in order once it starts again. The session
+ * is kept across configuration changes, so a load keeps running while the activity is being
+ * recreated and reports to the new one.
+ * <p>
+ * Every method must be called on the main thread, except those of {@link Job}.
+ */
+final class NewsLoadSession implements LifecycleObserver {
+
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = NewsLoadSession.class.getName();
+
+    /**
+     * Receives what the loads of the session deliver, on the main thread.
+     */
+    interface Callbacks {
+
+        /**
+         * Some news of a running load, while the rest is still being downloaded.
+         *
+         * @param first is true for the first batch of the load
+         */
+        void onLoadBatch(int id, List<News> batch, boolean first);
+
+        /**
+         * The news of a load, null if it failed. A load may deliver earlier results before its
+         * final one, for example the stale news it is refreshing.
+         */
+        void onLoadFinished(int id, LoadTask task, List<News> news);
+    }
+
+    /**
+     * What a load does, on a worker thread of the {@link NewsLoadEngine}.
+     */
+    interface LoadTask {
+        /**
+         * @return the news, or null if the load failed
+         */
+        List<News> load(Job job);
+    }
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * The running loads, by id
+     */
+    private final SparseArray<Job> jobs = new SparseArray<>();
+
+    /**
+     * Deliveries that arrived while the screen was stopped, in order
+     */
+    private final List<Runnable> pendingDeliveries = new ArrayList<>();
+
+    private Callbacks callbacks;
+
+    private Lifecycle lifecycle;
+
+    private boolean started;
+
+    /**
+     * Deliver the results to the callbacks while the owner is started, until it is destroyed.
+     */
+    void attach(LifecycleOwner owner, Callbacks callbacks) {
+        if (lifecycle != null) {
+            lifecycle.removeObserver(this);
+        }
+        this.callbacks = callbacks;
+        lifecycle = owner.getLifecycle();
+        lifecycle.addObserver(this);
+    }
+
+    @OnLifecycleEvent(Lifecycle.Event.ON_START)
+    void onStart() {
+        started = true;
+        List<Runnable> deliveries = new ArrayList<>(pendingDeliveries);
+        pendingDeliveries.clear();
+        for (Runnable delivery : deliveries) {
+            delivery.run();
+        }
+    }
+
+    @OnLifecycleEvent(Lifecycle.Event.ON_STOP)
+    void onStop() {
+        started = false;
+    }
+
+    /**
+     * The owner is gone, the loads keep running for the next one unless they are cancelled.
+     */
+    @OnLifecycleEvent(Lifecycle.Event.ON_DESTROY)
+    void onDestroy() {
+        started = false;
+        callbacks = null;
+        if (lifecycle != null) {
+            lifecycle.removeObserver(this);
+            lifecycle = null;
+        }
+    }
+
+    /**
+     * Start a load, cancelling the one running with the same id.
+     */
+    void start(int id, LoadTask task) {
+        cancel(id);
+        final Job job = new Job(id, task);
+        jobs.put(id, job);
+        job.future = NewsLoadEngine.getInstance().submit(job);
+    }
+
+    /**
+     * Returns the task of the load running with the id, null if there is none.
+     */
+    LoadTask getTask(int id) {
+        Job job = jobs.get(id);
+        return job != null ? job.task : null;
+    }
+
+    /**
+     * Cancel the load running with the id, if any. Nothing it loaded is delivered afterwards.
+     */
+    void cancel(int id) {
+        Job job = jobs.get(id);
+        if (job != null) {
+            jobs.remove(id);
+            job.cancel();
+        }
+    }
+
+    void cancelAll() {
+        for (int i = 0; i < jobs.size(); i++) {
+            jobs.valueAt(i).cancel();
+        }
+        jobs.clear();
+        pendingDeliveries.clear();
+    }
+
+    //Run a delivery now if the screen is started, otherwise once it starts
+    private void deliver(final Job job, final Runnable delivery) {
+        if (jobs.get(job.id) != job) {
+            // Cancelled or replaced meanwhile
+            return;
+        }
+        if (started && callbacks != null) {
+            delivery.run();
+        } else {
+            // Checked again once started, the job may be cancelled by then
+            pendingDeliveries.add(new Runnable() {
+                @Override
+                public void run() {
+                    deliver(job, delivery);
+                }
+            });
+        }
+    }
+
+    /**
+     * One run of a {@link LoadTask}, which it uses to report back.
+     */
+    final class Job implements Runnable {
+
+        final int id;
+
+        final LoadTask task;
+
+        private final CancellationToken cancellation = new CancellationToken();
+
+        /**
+         * Set on the main thread right after the job was submitted
+         */
+        private Future<?> future;
+
+        /**
+         * News published that were not delivered yet, guarded by itself
+         */
+        private final List<News> pendingNews = new ArrayList<>();
+
+        /**
+         * True while a batch delivery is waiting, guarded by pendingNews
+         */
+        private boolean batchPosted;
+
+        /**
+         * True until the first batch has been delivered, guarded by pendingNews
+         */
+        private boolean firstBatch = true;
+
+        /**
+         * Delivers everything published since the last batch in one go, so however fast
+         * the parser is the main thread only gets one message at a time.
+         */
+        private final Runnable deliverBatch = new Runnable() {
+            @Override
+            public void run() {
+                deliver(Job.this, new Runnable() {
+                    @Override
+                    public void run() {
+                        List<News> batch;
+                        boolean first;
+                        synchronized (pendingNews) {
+                            batch = new ArrayList<>(pendingNews);
+                            pendingNews.clear();
+                            batchPosted = false;
+                            first = firstBatch;
+                            firstBatch = false;
+                        }
+                        if (!batch.isEmpty()) {
+                            callbacks.onLoadBatch(id, batch, first);
+                        }
+                    }
+                });
+            }
+        };
+
+        Job(int id, LoadTask task) {
+            this.id = id;
+            this.task = task;
+        }
+
+        /**
+         * Returns the token the work passes down to whatever blocks, so cancelling the job
+         * aborts it.
+         */
+        CancellationToken getCancellation() {
+            return cancellation;
+        }
+
+        boolean isCancelled() {
+            return cancellation.isCancelled();
+        }
+
+        /**
+         * Queue a news for the next batch. May be called on any thread.
+         */
+        void publish(News news) {
+            synchronized (pendingNews) {
+                pendingNews.add(news);
+                if (!batchPosted) {
+                    batchPosted = true;
+                    mainHandler.post(deliverBatch);
+                }
+            }
+        }
+
+        /**
+         * Deliver news before the load is finished, such as the stale news it is refreshing.
+         * May be called on any thread.
+         */
+        void deliverResult(final List<News> news) {
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    deliver(Job.this, new Runnable() {
+                        @Override
+                        public void run() {
+                            callbacks.onLoadFinished(id, task, news);
+                        }
+                    });
+                }
+            });
+        }
+
+        @Override
+        public void run() {
+            if (isCancelled()) {
+                return;
+            }
+            List<News> loaded;
+            try {
+                loaded = task.load(this);
+            } catch (RuntimeException e) {
+                // The executor would keep it to itself, and the job would count as running forever
+                Log.e(LOG_TAG, "Load " + id + " failed", e);
+                loaded = null;
+            }
+            final List<News> news = loaded;
+            if (isCancelled()) {
+                return;
+            }
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    deliver(Job.this, new Runnable() {
+                        @Override
+                        public void run() {
+                            // Finished, so it no longer counts as running
+                            if (jobs.get(id) == Job.this) {
+                                jobs.remove(id);
+                            }
+                            callbacks.onLoadFinished(id, task, news);
+                        }
+                    });
+                }
+            });
+        }
+
+        //Called on the main thread, the connection is closed off it
+        private void cancel() {
+            cancellation.cancel(NewsLoadEngine.getInstance().getCancelExecutor());
+            if (future != null) {
+                // The interrupt wakes the work up from waiting on other threads
+                future.cancel(true);
+            }
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package com.example.android.project7_newsappstage2;
+
+import android.content.Context;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Loads one page of the feed, from the cache, the {@link NewsStore} or the network.
+ */
+final class NewsLoadTask implements NewsLoadSession.LoadTask {
+
+    /**
+     * Query URL, the cache key of the combined feed when more than one section is loaded
+     */
+    private final String newsUrl;
+
+    /**
+     * Query URL of every section in the feed
+     */
+    private final List<String> sectionUrls;
+
+    /**
+     * The page of results requested by the query URL
+     */
+    private final int page;
+
+    /**
+     * Number of news in a page of the feed, a section URL of a combined feed asks for fewer
+     */
+    private final int pageSize;
+
+    /**
+     * The last news of the page before, the stored page is read from the one after it.
+     * Null for the first page, and for a page before the window.
+     */
+    private final News after;
+
+    /**
+     * The first news of the page after, for a page before the window, otherwise null
+     */
+    private final News before;
+
+    /**
+     * Disk cache of the parsed news of every query
+     */
+    private final NewsCache newsCache;
+
+    /**
+     * Every article loaded so far, the page is read from here
+     */
+    private final NewsStore newsStore;
+
+    /**
+     * Constructs a new {@link NewsLoadTask} for one page of results.
+     *
+     * @param context  of the activity
+     * @param url      to load data from
+     * @param page     is the page requested by the url
+     * @param pageSize is the number of news requested by the url
+     */
+    NewsLoadTask(Context context, String url, int page, int pageSize) {
+        this(context, Collections.singletonList(url), page, pageSize, null, null);
+    }
+
+    /**
+     * Constructs a new {@link NewsLoadTask} for one page of a feed combining several sections.
+     *
+     * @param context     of the activity
+     * @param sectionUrls is the query url of every section, they are fetched in parallel
+     * @param page        is the page requested by the urls
+     * @param pageSize    is the number of news in a page of the feed
+     * @param after       is the last news of the page before, null for the first page or a
+     *                    page before the window
+     * @param before      is the first news of the page after, for a page before the window,
+     *                    otherwise null
+     */
+    NewsLoadTask(Context context, List<String> sectionUrls, int page, int pageSize, News after,
+                 News before) {
+        this.sectionUrls = sectionUrls;
+        newsUrl = NewsQuery.getCacheKey(sectionUrls);
+        this.page = page;
+        this.pageSize = pageSize;
+        this.after = after;
+        this.before = before;
+        newsCache = NewsCache.getInstance(context);
+        newsStore = NewsStore.getInstance(context);
+    }
+
+    /**
+     * Returns the page of results this task loads
+     */
+    int getPage() {
+        return page;
+    }
+
+    /**
+     * Returns the query URL of every section this task loads
+     */
+    List<String> getSectionUrls() {
+        return sectionUrls;
+    }
+
+    /**
+     * This is on a worker thread of the {@link NewsLoadEngine}.
+     * <p>
+     * Cached news that are still fresh are returned without touching the network. Stale ones
+     * are shown straight away while the query is refreshed, and are kept if the refresh fails.
+     * Downloaded news are added to the {@link NewsStore} and the page is then read back from
+     * it, so it also holds the articles stored by earlier loads, even without a connection.
+     * Cancelling the job aborts the download, and nothing is stored then.
+     * <p>
+     * A section whose first page was cached with another page size only downloads the news
+     * missing from it, see {@link ReloadPlanner}. A stale first page is refreshed with the
+     * articles published since it was cached, see {@link DeltaSync}. A combined feed that is
+     * missing some of its sections is not cached as fresh, so the next load asks for them again.
+     */
+    @Override
+    public List<News> load(final NewsLoadSession.Job job) {
+        if (newsUrl == null) {
+            return null;
+        }
+
+        NewsCache.Entry cached = newsCache.get(newsUrl);
+        if (cached != null && cached.isFresh()) {
+            NewsMetrics.count(NewsMetrics.COUNTER_FEED_CACHE_HITS, 1);
+            onCached();
+            return readPage(cached.news);
+        }
+        NewsMetrics.count(NewsMetrics.COUNTER_FEED_CACHE_MISSES, 1);
+
+        // A stale page that can be refreshed with the new articles is never planned, the held
+        // entry of another page size is older than what the refresh gives
+        boolean delta = DeltaSync.canRefresh(sectionUrls, cached);
+        ReloadPlanner.Plan plan = null;
+        if (!delta && sectionUrls.size() == 1) {
+            plan = ReloadPlanner.getInstance().plan(newsCache, newsUrl);
+            if (plan != null && plan.missingUrls.isEmpty()) {
+                // The page is all there already
+                List<News> result = plan.complete(Collections.<List<News>>emptyList());
+                newsCache.put(newsUrl, result, plan.heldEntry.savedAt, plan.heldEntry.downloadedAt);
+                onCached();
+                return readPage(result);
+            }
+        }
+
+        NewsStreamParser.OnNewsParsedListener listener = null;
+        if (cached != null || sectionUrls.size() > 1) {
+            // Show the stale news now, the refreshed list replaces them once it is complete.
+            // A combined feed can only be shown once every section has been merged.
+            if (cached != null) {
+                job.deliverResult(cached.news);
+            }
+        } else {
+            // Nothing to show yet, so show the news in batches while they are being parsed,
+            // after the ones already held
+            if (plan != null) {
+                for (News news : plan.getHeldNews()) {
+                    job.publish(news);
+                }
+            }
+            listener = new NewsStreamParser.OnNewsParsedListener() {
+                @Override
+                public void onNewsParsed(News news) {
+                    job.publish(news);
+                }
+            };
+        }
+
+        List<News> result;
+        MultiSectionFetcher.Result merged = null;
+        if (delta) {
+            merged = DeltaSync.refresh(sectionUrls, cached, pageSize, job.getCancellation());
+            result = merged != null ? merged.news : null;
+        } else if (sectionUrls.size() > 1) {
+            merged = MultiSectionFetcher.fetchNewsItemsData(sectionUrls, job.getCancellation());
+            result = merged != null ? merged.news : null;
+        } else if (plan != null) {
+            result = fetchMissingPages(plan, listener, job.getCancellation());
+        } else {
+            result = NewsRequestCoalescer.getInstance().fetchNewsItemsData(newsUrl, listener,
+                    job.getCancellation());
+        }
+        if (job.isCancelled()) {
+            return null;
+        }
+        if (result == null) {
+            return readPage(cached != null ? cached.news : null);
+        }
+        if (plan != null) {
+            newsCache.put(newsUrl, result, plan.heldEntry.savedAt, plan.heldEntry.downloadedAt);
+        } else if (merged != null && merged.partial) {
+            // Some sections failed, they are asked for again on the next load
+            newsCache.putPartial(newsUrl, result, cached,
+                    delta ? cached.downloadedAt : System.currentTimeMillis());
+        } else if (delta) {
+            newsCache.put(newsUrl, result, System.currentTimeMillis(), cached.downloadedAt);
+        } else {
+            newsCache.put(newsUrl, result);
+        }
+        onCached();
+        newsStore.upsert(result);
+        return readPage(result);
+    }
+
+    //Let the planner know the news of a single section are cached, so they are reused if the
+    //page size changes
+    private void onCached() {
+        if (sectionUrls.size() == 1) {
+            ReloadPlanner.getInstance().onPageCached(newsUrl);
+        }
+    }
+
+    //Download the pages missing from the plan and complete the page with them, returns null if
+    //one of them could not be downloaded
+    private static List<News> fetchMissingPages(ReloadPlanner.Plan plan,
+                                                NewsStreamParser.OnNewsParsedListener listener,
+                                                CancellationToken cancellation) {
+        List<List<News>> missingPages = new ArrayList<>(plan.missingUrls.size());
+        for (String url : plan.missingUrls) {
+            List<News> news = NewsRequestCoalescer.getInstance().fetchNewsItemsData(url, listener,
+                    cancellation);
+            if (news == null) {
+                return null;
+            }
+            missingPages.add(news);
+        }
+        return plan.complete(missingPages);
+    }
+
+    //Read the page next to the news shown from the store, or use the loaded news if the store
+    //has none of them
+    private List<News> readPage(List<News> loadedNews) {
+        List<String> sectionIds = NewsQuery.getSectionIds(sectionUrls);
+        List<News> storedNews = before != null
+                ? newsStore.queryPageBefore(sectionIds, pageSize, before)
+                : newsStore.queryPageAfter(sectionIds, pageSize, after);
+        return storedNews.isEmpty() ? loadedNews : storedNews;
+    }
+}
@@ -0,0 +1,330 @@
+package com.example.android.project7_newsappstage2;
+
+import android.os.Build;
+import android.os.Debug;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Times the stages of loading and showing the news, and counts what went through them.
+ * <p>
+ * Every stage has a histogram with one bucket per power of two microseconds, so recording a
+ * sample is a few atomic increments without any allocation or lock, and is cheap enough to
+ * stay on in release builds. The numbers are shown by {@link MetricsActivity} and can be
+ * exported as JSON to compare builds.
+ */
+final class NewsMetrics {
+
+    /**
+     * Opening the connection: DNS lookup, TCP and TLS handshakes
+     */
+    static final int STAGE_CONNECT = 0;
+
+    /**
+     * From the request being sent to the status line of the response
+     */
+    static final int STAGE_FIRST_BYTE = 1;
+
+    /**
+     * Reading the body while it is streamed into the JSON parser
+     */
+    static final int STAGE_PARSE = 2;
+
+    /**
+     * {@link QueryUtils#readBody(java.io.InputStream, long)}, reading a whole body into memory
+     */
+    static final int STAGE_READ_STREAM = 3;
+
+    /**
+     * {@link QueryUtils#extractResultsFromJSON(String)}, the buffered parse
+     */
+    static final int STAGE_EXTRACT_JSON = 4;
+
+    static final int STAGE_FORMAT_DATE = 5;
+
+    /**
+     * Binding a news to a list item
+     */
+    static final int STAGE_BIND = 6;
+
+    /**
+     * A whole fetch, retries and back offs included
+     */
+    static final int STAGE_FETCH = 7;
+
+    private static final String[] STAGE_NAMES = {
+            "connect", "first_byte", "parse", "read_stream", "extract_json", "format_date", "bind",
+            "fetch"};
+
+    static final int COUNTER_BYTES_DOWNLOADED = 0;
+
+    static final int COUNTER_ITEMS_PARSED = 1;
+
+    static final int COUNTER_FEED_CACHE_HITS = 2;
+
+    static final int COUNTER_FEED_CACHE_MISSES = 3;
+
+    static final int COUNTER_THUMBNAIL_MEMORY_HITS = 4;
+
+    static final int COUNTER_THUMBNAIL_DISK_HITS = 5;
+
+    static final int COUNTER_THUMBNAIL_DOWNLOADS = 6;
+
+    /**
+     * Objects allocated by fetches, only counted while allocation counting is on
+     */
+    static final int COUNTER_FETCH_ALLOCATIONS = 7;
+
+    /**
+     * Feeds refreshed by downloading only the articles published since they were cached
+     */
+    static final int COUNTER_DELTA_REFRESHES = 8;
+
+    private static final String[] COUNTER_NAMES = {
+            "bytes_downloaded", "items_parsed", "feed_cache_hits", "feed_cache_misses",
+            "thumbnail_memory_hits", "thumbnail_disk_hits", "thumbnail_downloads",
+            "fetch_allocations", "delta_refreshes"};
+
+    /**
+     * Enough buckets for samples of more than half an hour
+     */
+    private static final int BUCKETS = 32;
+
+    private static final Histogram[] histograms = new Histogram[STAGE_NAMES.length];
+
+    private static final AtomicLongArray counters = new AtomicLongArray(COUNTER_NAMES.length);
+
+    private static volatile boolean countingAllocations;
+
+    static {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new Histogram();
+        }
+    }
+
+    private NewsMetrics() {
+    }
+
+    /**
+     * Record the time from startNanos, a value of {@link System#nanoTime()}, until now.
+     */
+    static void record(int stage, long startNanos) {
+        histograms[stage].add((System.nanoTime() - startNanos) / 1000);
+    }
+
+    static void count(int counter, long delta) {
+        counters.addAndGet(counter, delta);
+    }
+
+    /**
+     * Returns the number of objects the calling thread allocated so far, to be passed to
+     * {@link #countAllocations(long)}, or 0 if allocations are not counted.
+     */
+    @SuppressWarnings("deprecation")
+    static long threadAllocations() {
+        return countingAllocations ? Debug.getThreadAllocCount() : 0;
+    }
+
+    /**
+     * Add the objects the calling thread allocated since {@link #threadAllocations()} returned
+     * the given count.
+     */
+    @SuppressWarnings("deprecation")
+    static void countAllocations(long startCount) {
+        if (countingAllocations) {
+            counters.addAndGet(COUNTER_FETCH_ALLOCATIONS, Debug.getThreadAllocCount() - startCount);
+        }
+    }
+
+    /**
+     * Allocation counting slows every allocation of the app down, so it is only turned on
+     * from the debug screen while measuring.
+     */
+    @SuppressWarnings("deprecation")
+    static synchronized void setCountingAllocations(boolean counting) {
+        if (counting == countingAllocations) {
+            return;
+        }
+        if (counting) {
+            Debug.resetAllCounts();
+            Debug.startAllocCounting();
+        } else {
+            Debug.stopAllocCounting();
+        }
+        countingAllocations = counting;
+    }
+
+    static boolean isCountingAllocations() {
+        return countingAllocations;
+    }
+
+    @SuppressWarnings("deprecation")
+    static void reset() {
+        for (Histogram histogram : histograms) {
+            histogram.clear();
+        }
+        for (int i = 0; i < counters.length(); i++) {
+            counters.set(i, 0);
+        }
+        if (countingAllocations) {
+            Debug.resetAllCounts();
+        }
+    }
+
+    /**
+     * Returns every histogram and counter as readable text.
+     */
+    @SuppressWarnings("deprecation")
+    static String dump() {
+        StringBuilder text = new StringBuilder();
+        text.append(String.format(Locale.ROOT, "%-13s %6s %8s %8s %8s %8s%n",
+                "stage (ms)", "count", "p50", "p90", "p99", "max"));
+        for (int i = 0; i < histograms.length; i++) {
+            Histogram histogram = histograms[i];
+            text.append(String.format(Locale.ROOT, "%-13s %6d %8.2f %8.2f %8.2f %8.2f%n",
+                    STAGE_NAMES[i], histogram.count.get(), histogram.percentile(0.5) / 1000.0,
+                    histogram.percentile(0.9) / 1000.0, histogram.percentile(0.99) / 1000.0,
+                    histogram.max.get() / 1000.0));
+        }
+        text.append('\n');
+        for (int i = 0; i < COUNTER_NAMES.length; i++) {
+            text.append(String.format(Locale.ROOT, "%-22s %d%n", COUNTER_NAMES[i], counters.get(i)));
+        }
+        text.append(String.format(Locale.ROOT, "%-22s %.2f%n", "feed_cache_hit_ratio", feedCacheHitRatio()));
+        text.append(String.format(Locale.ROOT, "%-22s %.2f%n", "thumbnail_hit_ratio", thumbnailHitRatio()));
+        if (countingAllocations) {
+            text.append(String.format(Locale.ROOT, "%-22s %d objects, %d bytes%n", "global_allocations",
+                    Debug.getGlobalAllocCount(), Debug.getGlobalAllocSize()));
+        }
+        return text.toString();
+    }
+
+    /**
+     * Returns every histogram and counter, with the device and build they were taken on.
+     */
+    @SuppressWarnings("deprecation")
+    static JSONObject toJson() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("app_version", BuildConfig.VERSION_NAME);
+        json.put("version_code", BuildConfig.VERSION_CODE);
+        json.put("build_type", BuildConfig.BUILD_TYPE);
+        json.put("device", Build.MANUFACTURER + " " + Build.MODEL);
+        json.put("sdk", Build.VERSION.SDK_INT);
+        json.put("cores", Runtime.getRuntime().availableProcessors());
+        json.put("parallel_parse", ParallelNewsParser.isEnabled());
+
+        JSONObject stages = new JSONObject();
+        for (int i = 0; i < histograms.length; i++) {
+            stages.put(STAGE_NAMES[i], histograms[i].toJson());
+        }
+        json.put("stages_us", stages);
+
+        JSONObject counts = new JSONObject();
+        for (int i = 0; i < COUNTER_NAMES.length; i++) {
+            counts.put(COUNTER_NAMES[i], counters.get(i));
+        }
+        json.put("counters", counts);
+
+        JSONObject ratios = new JSONObject();
+        ratios.put("feed_cache_hit_ratio", feedCacheHitRatio());
+        ratios.put("thumbnail_hit_ratio", thumbnailHitRatio());
+        json.put("ratios", ratios);
+
+        if (countingAllocations) {
+            JSONObject allocations = new JSONObject();
+            allocations.put("objects", Debug.getGlobalAllocCount());
+            allocations.put("bytes", Debug.getGlobalAllocSize());
+            json.put("global_allocations", allocations);
+        }
+        return json;
+    }
+
+    private static double feedCacheHitRatio() {
+        return ratio(counters.get(COUNTER_FEED_CACHE_HITS), counters.get(COUNTER_FEED_CACHE_MISSES));
+    }
+
+    //Thumbnails found in either cache, out of all the thumbnails asked for
+    private static double thumbnailHitRatio() {
+        long hits = counters.get(COUNTER_THUMBNAIL_MEMORY_HITS) + counters.get(COUNTER_THUMBNAIL_DISK_HITS);
+        return ratio(hits, counters.get(COUNTER_THUMBNAIL_DOWNLOADS));
+    }
+
+    private static double ratio(long hits, long misses) {
+        return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+    }
+
+    //Samples in microseconds, bucket i holds the samples below 2^i
+    private static final class Histogram {
+
+        final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+        final AtomicLong count = new AtomicLong();
+
+        final AtomicLong sum = new AtomicLong();
+
+        final AtomicLong max = new AtomicLong();
+
+        void add(long micros) {
+            int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+            buckets.incrementAndGet(bucket);
+            count.incrementAndGet();
+            sum.addAndGet(micros);
+            long currentMax = max.get();
+            while (micros > currentMax && !max.compareAndSet(currentMax, micros)) {
+                currentMax = max.get();
+            }
+        }
+
+        void clear() {
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets.set(i, 0);
+            }
+            count.set(0);
+            sum.set(0);
+            max.set(0);
+        }
+
+        /**
+         * Returns the upper bound of the bucket holding the given fraction of the samples,
+         * so it overestimates by less than a factor of two.
+         */
+        long percentile(double fraction) {
+            long total = count.get();
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(fraction * total);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) {
+                    return Math.min(max.get(), (1L << i) - 1);
+                }
+            }
+            return max.get();
+        }
+
+        JSONObject toJson() throws JSONException {
+            JSONObject json = new JSONObject();
+            long total = count.get();
+            json.put("count", total);
+            json.put("mean", total == 0 ? 0 : sum.get() / total);
+            json.put("p50", percentile(0.5));
+            json.put("p90", percentile(0.9));
+            json.put("p99", percentile(0.99));
+            json.put("max", max.get());
+            JSONArray counts = new JSONArray();
+            for (int i = 0; i < BUCKETS; i++) {
+                counts.put(buckets.get(i));
+            }
+            json.put("buckets", counts);
+            return json;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.example.android.project7_newsappstage2;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Keeps a bounded window of consecutive pages of {@link News}.
+ * <p>
+ * Pages can be added at either end of the window. Once the window holds more than the
+ * maximum number of pages, the page furthest from the one just added is evicted, so memory
+ * stays flat however far the list is scrolled.
+ */
+final class NewsPager {
+
+    private final int pageSize;
+
+    private final int maxPages;
+
+    /**
+     * Pages in the window by page number, which start at 1 like the Guardian page parameter
+     */
+    private final TreeMap<Integer, List<News>> pages = new TreeMap<>();
+
+    /**
+     * The last page that exists, or Integer.MAX_VALUE while it is not known yet
+     */
+    private int lastAvailablePage = Integer.MAX_VALUE;
+
+    /**
+     * Create a new {@link NewsPager}.
+     *
+     * @param pageSize is the number of news requested per page
+     * @param maxPages is the number of pages kept in the window
+     */
+    NewsPager(int pageSize, int maxPages) {
+        this.pageSize = pageSize;
+        this.maxPages = maxPages;
+    }
+
+    int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Returns true if the page is in the window.
+     */
+    boolean hasPage(int page) {
+        return pages.containsKey(page);
+    }
+
+    boolean isEmpty() {
+        return pages.isEmpty();
+    }
+
+    /**
+     * Returns the first page in the window, 0 if it is empty.
+     */
+    int getFirstPage() {
+        return pages.isEmpty() ? 0 : pages.firstKey();
+    }
+
+    /**
+     * Returns the last page in the window, 0 if it is empty.
+     */
+    int getLastPage() {
+        return pages.isEmpty() ? 0 : pages.lastKey();
+    }
+
+    /**
+     * Returns the first news of the window, null if it has none.
+     */
+    News getFirstNews() {
+        for (List<News> pageNews : pages.values()) {
+            if (!pageNews.isEmpty()) {
+                return pageNews.get(0);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the last news of the window, null if it has none.
+     */
+    News getLastNews() {
+        for (List<News> pageNews : pages.descendingMap().values()) {
+            if (!pageNews.isEmpty()) {
+                return pageNews.get(pageNews.size() - 1);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns true if there is a page before the window.
+     */
+    boolean hasPreviousPage() {
+        return getFirstPage() > 1;
+    }
+
+    /**
+     * Returns true if there might be a page after the window.
+     */
+    boolean hasNextPage() {
+        return getLastPage() < lastAvailablePage;
+    }
+
+    /**
+     * Add a loaded page to the window.
+     * <p>
+     * A page is only accepted if it replaces one in the window, is next to it, or if the
+     * window is empty, so the window never has holes.
+     *
+     * @return true if the page was added to the window
+     */
+    boolean putPage(int page, List<News> news) {
+        if (page < 1 || news == null) {
+            return false;
+        }
+        if (!pages.isEmpty() && !pages.containsKey(page)
+                && page != getFirstPage() - 1 && page != getLastPage() + 1) {
+            return false;
+        }
+
+        // A short page is the last one
+        if (news.size() < pageSize) {
+            lastAvailablePage = page;
+        } else if (page >= lastAvailablePage) {
+            lastAvailablePage = Integer.MAX_VALUE;
+        }
+
+        pages.put(page, Collections.unmodifiableList(new ArrayList<>(news)));
+
+        // Evict the page furthest from the one just added
+        while (pages.size() > maxPages) {
+            if (page - getFirstPage() >= getLastPage() - page) {
+                pages.pollFirstEntry();
+            } else {
+                pages.pollLastEntry();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the news of every page in the window, in page order.
+     */
+    List<News> getNews() {
+        return getNews(Collections.<News>emptyList());
+    }
+
+    /**
+     * Returns the given news followed by the news of every page in the window, in page order.
+     * An article is only returned the first time, whether it is on two pages because the pages
+     * were read at different times, or a given news stands in for it.
+     *
+     * @param leading are the news shown before the window, such as the news of the first page
+     *                streamed so far, they take the place of the held news with the same url
+     */
+    List<News> getNews(List<News> leading) {
+        List<News> news = new ArrayList<>(leading.size() + pages.size() * pageSize);
+        Set<String> urls = new HashSet<>();
+        for (News item : leading) {
+            if (item.getArticleUrl() == null || urls.add(item.getArticleUrl())) {
+                news.add(item);
+            }
+        }
+        for (List<News> pageNews : pages.values()) {
+            for (News item : pageNews) {
+                if (item.getArticleUrl() == null || urls.add(item.getArticleUrl())) {
+                    news.add(item);
+                }
+            }
+        }
+        return news;
+    }
+
+    /**
+     * Empty the window, for example because the query changed.
+     */
+    void clear() {
+        pages.clear();
+        lastAvailablePage = Integer.MAX_VALUE;
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.android.project7_newsappstage2;
+
+import android.net.Uri;
+import android.text.TextUtils;
+
+/**
+ * The parts of a Guardian search result the app actually uses, shared by the query and the
+ * parsers so the two can not drift apart.
+ * <p>
+ * A result always carries its id, type, section, title, date, urls and pillar. Anything more
+ * has to be asked for, so the query only asks for the optional field shown in the list, the
+ * thumbnail, and for the contributor tags, whose first and last names make up the author. The
+ * API sends every tag whole, so the parsers read the keys below and skip everything else,
+ * such as the bio and urls of a contributor, without building it.
+ */
+final class NewsProjection {
+
+    static final String SECTION_ID = "sectionId";
+
+    static final String SECTION_NAME = "sectionName";
+
+    static final String TITLE = "webTitle";
+
+    static final String URL = "webUrl";
+
+    static final String PUBLICATION_DATE = "webPublicationDate";
+
+    /**
+     * The object holding the optional fields
+     */
+    static final String FIELDS = "fields";
+
+    static final String FIELD_THUMBNAIL = "thumbnail";
+
+    /**
+     * The optional fields the query asks for
+     */
+    private static final String[] SHOWN_FIELDS = {FIELD_THUMBNAIL};
+
+    /**
+     * The array holding the contributor tags, the first one is the author
+     */
+    static final String TAGS = "tags";
+
+    static final String TAG_FIRST_NAME = "firstName";
+
+    static final String TAG_LAST_NAME = "lastName";
+
+    /**
+     * The type of the tags the query asks for
+     */
+    private static final String SHOWN_TAGS = "contributor";
+
+    /**
+     * No one should create a {@link NewsProjection} object, it only holds static methods.
+     */
+    private NewsProjection() {
+    }
+
+    /**
+     * Ask the query for the optional fields and the tags of the projection, and nothing more.
+     */
+    static void appendTo(Uri.Builder uriBuilder) {
+        uriBuilder.appendQueryParameter("show-fields", TextUtils.join(",", SHOWN_FIELDS));
+        uriBuilder.appendQueryParameter("show-tags", SHOWN_TAGS);
+    }
+}
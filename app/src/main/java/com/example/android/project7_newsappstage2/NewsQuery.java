@@ -0,0 +1,178 @@
+package com.example.android.project7_newsappstage2;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.preference.PreferenceManager;
+import android.text.TextUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Builds the Guardian query URLs from the settings chosen by the user.
+ * <p>
+ * The list and the background sync both go through here, so they always ask for exactly the
+ * same URLs and share the cached results.
+ */
+final class NewsQuery {
+
+    /**
+     * URL for news data from the dataset, the fields of the {@link NewsProjection} are added to it
+     */
+    static final String NEWS_REQUEST_URL = "https://content.guardianapis.com/search?" +
+            "api-key=c66eef35-0811-42e7-b42f-b07cdf5a60fe";
+
+    /**
+     * No one should create a {@link NewsQuery} object, it only holds static methods.
+     */
+    private NewsQuery() {
+    }
+
+    /**
+     * Returns the number of articles per page chosen in the settings.
+     */
+    static int getPageSize(Context context) {
+        SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
+        String numberOfArticles = sharedPreferences.getString(context.getString(R.string.number_of_articles_key),
+                context.getString(R.string.number_of_articles_default));
+        try {
+            return Integer.parseInt(numberOfArticles);
+        } catch (NumberFormatException e) {
+            return Integer.parseInt(context.getString(R.string.number_of_articles_default));
+        }
+    }
+
+    /**
+     * Build the query URLs for one page of news, using the settings chosen by the user. There is
+     * one URL per section when several sections are combined into one feed.
+     */
+    static List<String> buildNewsUrls(Context context, int pageSize, int page) {
+        SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
+
+        String orderBySection = sharedPreferences.getString(context.getString(R.string.settings_order_by_section_key),
+                context.getString(R.string.settings_order_by_section_default));
+
+        Set<String> combinedSections = sharedPreferences.getStringSet(
+                context.getString(R.string.settings_combined_sections_key), Collections.<String>emptySet());
+
+        if (combinedSections.size() < 2) {
+            return Collections.singletonList(
+                    buildNewsUrl(orderBySection.toLowerCase(), pageSize, page, false));
+        }
+
+        // Sort the sections so the same selection always gives the same cache key, and split
+        // the page between them so a combined page is about as long as a single one
+        List<String> sections = new ArrayList<>(new TreeSet<>(combinedSections));
+        int sectionPageSize = (pageSize + sections.size() - 1) / sections.size();
+        List<String> urls = new ArrayList<>(sections.size());
+        for (String section : sections) {
+            urls.add(buildNewsUrl(section, sectionPageSize, page, true));
+        }
+        return urls;
+    }
+
+    /**
+     * Build the query URL for one page of a section.
+     */
+    static String buildNewsUrl(String section, int pageSize, int page, boolean newestFirst) {
+        Uri baseUri = Uri.parse(NEWS_REQUEST_URL);
+        Uri.Builder uriBuilder = baseUri.buildUpon();
+
+        NewsProjection.appendTo(uriBuilder);
+        uriBuilder.appendQueryParameter("page-size", String.valueOf(pageSize));
+        uriBuilder.appendQueryParameter("section", section);
+        if (newestFirst) {
+            // The merge of the sections relies on every section being sorted by date
+            uriBuilder.appendQueryParameter("order-by", "newest");
+        }
+        if (page > 1) {
+            uriBuilder.appendQueryParameter("page", String.valueOf(page));
+        }
+
+        return uriBuilder.toString();
+    }
+
+    /**
+     * Returns the query URL of another page of the same section and order, as
+     * {@link #buildNewsUrl(String, int, int, boolean)} builds it, so it is cached under the same key.
+     */
+    static String withPage(String url, int pageSize, int page) {
+        Uri uri = Uri.parse(url);
+        return buildNewsUrl(uri.getQueryParameter("section"), pageSize, page,
+                uri.getQueryParameter("order-by") != null);
+    }
+
+    /**
+     * Returns the query URL of the articles of the same section published since the time, newest
+     * first. The API counts the second of the time in, so the newest article already held comes
+     * back too.
+     */
+    static String buildDeltaUrl(String url, long since) {
+        Uri uri = Uri.parse(url);
+        Uri.Builder uriBuilder = uri.buildUpon();
+        uriBuilder.appendQueryParameter("use-date", "published");
+        uriBuilder.appendQueryParameter("from-date", GuardianDateCodec.formatRaw(since));
+        if (uri.getQueryParameter("order-by") == null) {
+            uriBuilder.appendQueryParameter("order-by", "newest");
+        }
+        return uriBuilder.toString();
+    }
+
+    /**
+     * Returns the page size asked for by a query URL.
+     */
+    static int getRequestedPageSize(String url) {
+        return parseInt(Uri.parse(url).getQueryParameter("page-size"), 0);
+    }
+
+    /**
+     * Returns the page asked for by a query URL, which is 1 when there is no page parameter.
+     */
+    static int getRequestedPage(String url) {
+        return parseInt(Uri.parse(url).getQueryParameter("page"), 1);
+    }
+
+    /**
+     * Returns what the results of a query URL are, whatever page of them it asks for: the
+     * section and the order.
+     */
+    static String getOrderingKey(String url) {
+        return withPage(url, 0, 1);
+    }
+
+    private static int parseInt(String value, int defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Returns the section id requested by every query URL.
+     */
+    static List<String> getSectionIds(List<String> urls) {
+        List<String> sectionIds = new ArrayList<>(urls.size());
+        for (String url : urls) {
+            String sectionId = Uri.parse(url).getQueryParameter("section");
+            if (sectionId != null) {
+                sectionIds.add(sectionId);
+            }
+        }
+        return sectionIds;
+    }
+
+    /**
+     * Returns the key the news of the query URLs are cached under.
+     */
+    static String getCacheKey(List<String> urls) {
+        return urls.size() == 1 ? urls.get(0) : TextUtils.join("\n", urls);
+    }
+}
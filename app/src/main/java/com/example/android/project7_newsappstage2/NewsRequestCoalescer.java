@@ -0,0 +1,276 @@
+package com.example.android.project7_newsappstage2;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sits in front of {@link QueryUtils#fetchNewsItemsData(String, NewsStreamParser.OnNewsParsedListener)}
+ * so the same query URL is never fetched twice at the same time.
+ * <p>
+ * The first caller of a URL does the fetch, anyone asking for the same URL meanwhile waits for
+ * that fetch instead of starting its own, and still gets every {@link News} streamed to its
+ * listener. A successful result is then remembered for a few seconds, which absorbs the
+ * repeats of a rotation or of coming back from the settings.
+ * <p>
+ * A shared fetch is only aborted once every caller waiting for it has been cancelled.
+ * <p>
+ * A fetch only streams its news if a caller asked for them when it starts. Otherwise the body
+ * is read whole into a pooled array and parsed from there, see {@link QueryUtils#readBody}, and
+ * a caller joining with a listener meanwhile gets the news once the fetch is done.
+ */
+final class NewsRequestCoalescer {
+
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = NewsRequestCoalescer.class.getName();
+
+    /**
+     * How long a result is handed out again without fetching it
+     */
+    private static final long MEMO_MILLIS = 5000;
+
+    /**
+     * Number of URLs whose last result is remembered
+     */
+    private static final int MAX_MEMOS = 8;
+
+    private static final NewsRequestCoalescer INSTANCE = new NewsRequestCoalescer(MEMO_MILLIS);
+
+    //A result and when it was fetched
+    private static final class Memo {
+
+        final List<News> news;
+
+        final long fetchedAtNanos;
+
+        Memo(List<News> news, long fetchedAtNanos) {
+            this.news = news;
+            this.fetchedAtNanos = fetchedAtNanos;
+        }
+    }
+
+    private final long memoNanos;
+
+    /**
+     * The fetch running for every URL
+     */
+    private final ConcurrentHashMap<String, InFlight> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Recent results by URL, guarded by itself
+     */
+    private final Map<String, Memo> memos = new LinkedHashMap<String, Memo>(MAX_MEMOS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Memo> eldest) {
+            return size() > MAX_MEMOS;
+        }
+    };
+
+    /**
+     * Returns the coalescer shared by the whole app, so every load goes through the same one.
+     */
+    static NewsRequestCoalescer getInstance() {
+        return INSTANCE;
+    }
+
+    NewsRequestCoalescer(long memoMillis) {
+        memoNanos = TimeUnit.MILLISECONDS.toNanos(memoMillis);
+    }
+
+    /**
+     * Query the Guardian dataset and return a list of {@link News} objects, sharing the fetch
+     * with any other caller asking for the same URL.
+     *
+     * @param listener receives every {@link News} of the result, may be null
+     * @return the news, or null if the fetch failed
+     */
+    List<News> fetchNewsItemsData(String requestUrl, NewsStreamParser.OnNewsParsedListener listener) {
+        return fetchNewsItemsData(requestUrl, listener, null);
+    }
+
+    /**
+     * Query the Guardian dataset and return a list of {@link News} objects, sharing the fetch
+     * with any other caller asking for the same URL.
+     *
+     * @param listener     receives every {@link News} of the result, may be null
+     * @param cancellation stops this caller waiting, may be null
+     * @return the news, or null if the fetch failed or was cancelled
+     */
+    List<News> fetchNewsItemsData(String requestUrl, NewsStreamParser.OnNewsParsedListener listener,
+                                  CancellationToken cancellation) {
+        Memo memo;
+        synchronized (memos) {
+            memo = memos.get(requestUrl);
+        }
+        if (memo != null && System.nanoTime() - memo.fetchedAtNanos < memoNanos) {
+            return memo.news;
+        }
+
+        InFlight call = new InFlight(requestUrl);
+        InFlight running = inFlight.putIfAbsent(requestUrl, call);
+        while (running != null && !running.join()) {
+            // Everyone waiting for it was cancelled, so it is being aborted: take its place
+            if (inFlight.replace(requestUrl, running, call)) {
+                running = null;
+            } else {
+                running = inFlight.putIfAbsent(requestUrl, call);
+            }
+        }
+        if (running != null) {
+            // Someone is already fetching it, so wait for their result
+            running.addListener(listener);
+            return await(running, cancellation);
+        }
+
+        call.join();
+        call.addListener(listener);
+        try {
+            call.leave(cancellation);
+            call.task.run();
+            List<News> news = await(call, null);
+            if (news != null) {
+                // Remember it before the fetch is gone, so there is no moment when neither is found
+                synchronized (memos) {
+                    memos.put(requestUrl, new Memo(news, System.nanoTime()));
+                }
+            }
+            return news;
+        } finally {
+            inFlight.remove(requestUrl, call);
+        }
+    }
+
+    //Wait for the fetch, a cancelled caller stops waiting through the interrupt of its thread
+    private static List<News> await(InFlight call, CancellationToken cancellation) {
+        if (cancellation != null) {
+            call.leave(cancellation);
+        }
+        try {
+            return call.task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            Log.e(LOG_TAG, "Error fetching " + call.requestUrl, e.getCause());
+            return null;
+        }
+    }
+
+    //One fetch, which hands every parsed news to all the callers waiting for it
+    private static final class InFlight implements Callable<List<News>>, NewsStreamParser.OnNewsParsedListener {
+
+        final String requestUrl;
+
+        final FutureTask<List<News>> task = new FutureTask<>(this);
+
+        /**
+         * Aborts the fetch once no caller wants it any more
+         */
+        final CancellationToken cancellation = new CancellationToken();
+
+        /**
+         * Callers waiting for the fetch that were not cancelled, guarded by this
+         */
+        private int callers;
+
+        /**
+         * News parsed so far, replayed to callers that join late. Guarded by this.
+         */
+        private final List<News> parsed = new ArrayList<>();
+
+        /**
+         * Guarded by this
+         */
+        private final List<NewsStreamParser.OnNewsParsedListener> listeners = new ArrayList<>(2);
+
+        InFlight(String requestUrl) {
+            this.requestUrl = requestUrl;
+        }
+
+        /**
+         * Count one more caller, false if the fetch is already being aborted.
+         */
+        synchronized boolean join() {
+            if (cancellation.isCancelled()) {
+                return false;
+            }
+            callers++;
+            return true;
+        }
+
+        /**
+         * The caller leaves when its token is cancelled, the last one to leave aborts the fetch.
+         */
+        void leave(CancellationToken callerCancellation) {
+            if (callerCancellation == null) {
+                // This caller waits for good
+                return;
+            }
+            callerCancellation.addOnCancelListener(new CancellationToken.OnCancelListener() {
+                @Override
+                public void onCancel() {
+                    boolean abort;
+                    synchronized (InFlight.this) {
+                        abort = --callers == 0 && !task.isDone();
+                    }
+                    if (abort) {
+                        cancellation.cancel();
+                    }
+                }
+            });
+        }
+
+        synchronized void addListener(NewsStreamParser.OnNewsParsedListener listener) {
+            if (listener == null) {
+                return;
+            }
+            for (News news : parsed) {
+                listener.onNewsParsed(news);
+            }
+            listeners.add(listener);
+        }
+
+        @Override
+        public synchronized void onNewsParsed(News news) {
+            parsed.add(news);
+            for (NewsStreamParser.OnNewsParsedListener listener : listeners) {
+                listener.onNewsParsed(news);
+            }
+        }
+
+        @Override
+        public List<News> call() {
+            boolean streaming;
+            synchronized (this) {
+                streaming = !listeners.isEmpty();
+            }
+            if (streaming) {
+                return QueryUtils.fetchNewsItemsData(requestUrl, this, cancellation);
+            }
+            // Nobody waits for single news, so the body is parsed in one go
+            List<News> news = QueryUtils.fetchNewsItemsData(requestUrl, null, cancellation);
+            if (news != null) {
+                // Callers that joined meanwhile, or still join, get them all now
+                synchronized (this) {
+                    parsed.addAll(news);
+                    for (NewsStreamParser.OnNewsParsedListener listener : listeners) {
+                        for (News item : news) {
+                            listener.onNewsParsed(item);
+                        }
+                    }
+                }
+            }
+            return news;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.example.android.project7_newsappstage2;
+
+import android.content.Context;
+
+import java.util.List;
+
+/**
+ * Searches the articles in the {@link NewsStore}, so searching never touches the network.
+ */
+final class NewsSearchTask implements NewsLoadSession.LoadTask {
+
+    /**
+     * What the user typed
+     */
+    private final String query;
+
+    private final NewsStore newsStore;
+
+    /**
+     * Constructs a new {@link NewsSearchTask}.
+     *
+     * @param context of the activity
+     * @param query   is what the user typed
+     */
+    NewsSearchTask(Context context, String query) {
+        this.query = query;
+        newsStore = NewsStore.getInstance(context);
+    }
+
+    /**
+     * This is on a worker thread of the {@link NewsLoadEngine}.
+     */
+    @Override
+    public List<News> load(NewsLoadSession.Job job) {
+        return newsStore.search(query);
+    }
+}
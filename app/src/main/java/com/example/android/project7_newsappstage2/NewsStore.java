@@ -0,0 +1,277 @@
+package com.example.android.project7_newsappstage2;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.project7_newsappstage2.NewsContract.ArticleEntry;
+import com.example.android.project7_newsappstage2.NewsContract.SearchEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Stores every loaded {@link News} in SQLite, so the list survives the process and can be
+ * scrolled through and searched offline.
+ * <p>
+ * Loads are written in a single transaction with compiled statements, and the list reads
+ * one page at a time through the (section, publication time) index, so only the pages in the
+ * {@link NewsPager} window are ever turned into objects however many articles are stored.
+ * <p>
+ * A page is read from the article next to it rather than by offset: articles keep arriving,
+ * and an offset then points somewhere else than when the page next to it was read, so
+ * articles would show up twice or not at all. The articles are ordered by publication time
+ * and then by row id, so even articles published the same second have one place in the list.
+ */
+final class NewsStore {
+
+    /**
+     * Oldest articles beyond this are deleted, so the database does not grow forever
+     */
+    private static final int MAX_ARTICLES = 5000;
+
+    private static final String[] PAGE_COLUMNS = {
+            ArticleEntry.COLUMN_SECTION_ID,
+            ArticleEntry.COLUMN_CATEGORY,
+            ArticleEntry.COLUMN_TITLE,
+            ArticleEntry.COLUMN_AUTHOR,
+            ArticleEntry.COLUMN_URL,
+            ArticleEntry.COLUMN_PUBLISHED,
+            ArticleEntry.COLUMN_THUMBNAIL_URL};
+
+    /**
+     * Maximum number of search results, they are not paged
+     */
+    static final int MAX_SEARCH_RESULTS = 100;
+
+    /**
+     * An article that is loaded again updates its row in place, so its row id (which is also
+     * its id in the search index) never changes. Both statements take the same arguments.
+     */
+    private static final String UPDATE_SQL = "UPDATE " + ArticleEntry.TABLE_NAME + " SET "
+            + ArticleEntry.COLUMN_SECTION_ID + " = ?, "
+            + ArticleEntry.COLUMN_CATEGORY + " = ?, "
+            + ArticleEntry.COLUMN_TITLE + " = ?, "
+            + ArticleEntry.COLUMN_AUTHOR + " = ?, "
+            + ArticleEntry.COLUMN_PUBLISHED + " = ?, "
+            + ArticleEntry.COLUMN_THUMBNAIL_URL + " = ? WHERE "
+            + ArticleEntry.COLUMN_URL + " = ?";
+
+    private static final String INSERT_SQL = "INSERT INTO " + ArticleEntry.TABLE_NAME + " ("
+            + ArticleEntry.COLUMN_SECTION_ID + ", "
+            + ArticleEntry.COLUMN_CATEGORY + ", "
+            + ArticleEntry.COLUMN_TITLE + ", "
+            + ArticleEntry.COLUMN_AUTHOR + ", "
+            + ArticleEntry.COLUMN_PUBLISHED + ", "
+            + ArticleEntry.COLUMN_THUMBNAIL_URL + ", "
+            + ArticleEntry.COLUMN_URL + ") VALUES (?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String SEARCH_SQL = "SELECT "
+            + "a." + ArticleEntry.COLUMN_SECTION_ID + ", "
+            + "a." + ArticleEntry.COLUMN_CATEGORY + ", "
+            + "a." + ArticleEntry.COLUMN_TITLE + ", "
+            + "a." + ArticleEntry.COLUMN_AUTHOR + ", "
+            + "a." + ArticleEntry.COLUMN_URL + ", "
+            + "a." + ArticleEntry.COLUMN_PUBLISHED + ", "
+            + "a." + ArticleEntry.COLUMN_THUMBNAIL_URL
+            + " FROM " + SearchEntry.TABLE_NAME + " s JOIN " + ArticleEntry.TABLE_NAME
+            + " a ON a." + ArticleEntry._ID + " = s.docid"
+            + " WHERE " + SearchEntry.TABLE_NAME + " MATCH ?"
+            + " ORDER BY a." + ArticleEntry.COLUMN_PUBLISHED + " DESC LIMIT " + MAX_SEARCH_RESULTS;
+
+    private static final String TRIM_SQL = "DELETE FROM " + ArticleEntry.TABLE_NAME
+            + " WHERE " + ArticleEntry._ID + " NOT IN (SELECT " + ArticleEntry._ID
+            + " FROM " + ArticleEntry.TABLE_NAME
+            + " ORDER BY " + ArticleEntry.COLUMN_PUBLISHED + " DESC LIMIT " + MAX_ARTICLES + ")";
+
+    private static NewsStore instance;
+
+    private final NewsDbHelper dbHelper;
+
+    /**
+     * Returns the store shared by the whole app.
+     */
+    static synchronized NewsStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new NewsStore(new NewsDbHelper(context.getApplicationContext()));
+        }
+        return instance;
+    }
+
+    private NewsStore(NewsDbHelper dbHelper) {
+        this.dbHelper = dbHelper;
+    }
+
+    /**
+     * Insert the loaded news, updating the ones that were already stored, in one transaction.
+     * The search index is updated by triggers in the same transaction.
+     * News without a web address can not be told apart, so they are not stored.
+     */
+    void upsert(List<News> news) {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        SQLiteStatement update = db.compileStatement(UPDATE_SQL);
+        SQLiteStatement insert = db.compileStatement(INSERT_SQL);
+        db.beginTransaction();
+        try {
+            for (News newsItem : news) {
+                if (newsItem.getArticleUrl() == null) {
+                    continue;
+                }
+                bindArticle(update, newsItem);
+                if (update.executeUpdateDelete() == 0) {
+                    bindArticle(insert, newsItem);
+                    insert.executeInsert();
+                }
+            }
+            db.execSQL(TRIM_SQL);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            update.close();
+            insert.close();
+        }
+    }
+
+    /**
+     * Returns one page of the stored news of the sections, newest first.
+     *
+     * @param sectionIds is the id of every section in the feed
+     * @param pageSize   is the number of news in a page
+     * @param after      is the last news of the page before, null for the first page
+     */
+    List<News> queryPageAfter(List<String> sectionIds, int pageSize, News after) {
+        return queryPage(sectionIds, pageSize, after, true);
+    }
+
+    /**
+     * Returns the page of the stored news of the sections that comes before a news, newest
+     * first. That is the page before the window, once the list was scrolled back up.
+     *
+     * @param sectionIds is the id of every section in the feed
+     * @param pageSize   is the number of news in a page
+     * @param before     is the first news of the page after
+     */
+    List<News> queryPageBefore(List<String> sectionIds, int pageSize, News before) {
+        List<News> news = queryPage(sectionIds, pageSize, before, false);
+        Collections.reverse(news);
+        return news;
+    }
+
+    //Read the page next to the news, the older ones or the newer ones. The newer ones come
+    //out oldest first, so the page is the one right next to the news.
+    private List<News> queryPage(List<String> sectionIds, int pageSize, News next, boolean older) {
+        if (sectionIds.isEmpty() || pageSize <= 0) {
+            return new ArrayList<>();
+        }
+
+        List<String> selectionArgs = new ArrayList<>(sectionIds);
+        StringBuilder selection = new StringBuilder(ArticleEntry.COLUMN_SECTION_ID).append(" IN (");
+        for (int i = 0; i < sectionIds.size(); i++) {
+            selection.append(i == 0 ? "?" : ", ?");
+        }
+        selection.append(')');
+
+        String comparison = older ? " < " : " > ";
+        if (next != null) {
+            // Ties on the publication time are broken by the row id of the news, which is
+            // looked up by its url. A news that is no longer stored keeps only its time.
+            String published = Long.toString(next.getPublicationTime());
+            selection.append(" AND (").append(ArticleEntry.COLUMN_PUBLISHED).append(comparison).append("? OR (")
+                    .append(ArticleEntry.COLUMN_PUBLISHED).append(" = ? AND ")
+                    .append(ArticleEntry._ID).append(comparison).append("(SELECT ")
+                    .append(ArticleEntry._ID).append(" FROM ").append(ArticleEntry.TABLE_NAME)
+                    .append(" WHERE ").append(ArticleEntry.COLUMN_URL).append(" = ?)))");
+            selectionArgs.add(published);
+            selectionArgs.add(published);
+            selectionArgs.add(next.getArticleUrl() != null ? next.getArticleUrl() : "");
+        }
+
+        String direction = older ? " DESC" : " ASC";
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        Cursor cursor = db.query(ArticleEntry.TABLE_NAME, PAGE_COLUMNS, selection.toString(),
+                selectionArgs.toArray(new String[selectionArgs.size()]), null, null,
+                ArticleEntry.COLUMN_PUBLISHED + direction + ", " + ArticleEntry._ID + direction,
+                Integer.toString(pageSize));
+        return readNews(cursor);
+    }
+
+    /**
+     * Returns the stored news matching every word of the query, newest first. The last word
+     * may be incomplete, so every word is matched as a prefix.
+     */
+    List<News> search(String query) {
+        String matchQuery = buildMatchQuery(query);
+        if (matchQuery == null) {
+            return new ArrayList<>();
+        }
+
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        Cursor cursor = db.rawQuery(SEARCH_SQL, new String[]{matchQuery});
+        return readNews(cursor);
+    }
+
+    /**
+     * Turn what the user typed into an FTS query: every word becomes a prefix term, and all of
+     * them have to match. Anything that is not a letter or a digit only separates words, so
+     * the query can never contain FTS operators.
+     *
+     * @return the query, or null if there are no words in the text
+     */
+    static String buildMatchQuery(String text) {
+        if (text == null) {
+            return null;
+        }
+        StringBuilder matchQuery = new StringBuilder(text.length() + 8);
+        int wordStart = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && wordStart < 0) {
+                wordStart = i;
+            } else if (!wordChar && wordStart >= 0) {
+                if (matchQuery.length() > 0) {
+                    matchQuery.append(' ');
+                }
+                // Lower case, so words like OR are not read as operators
+                matchQuery.append(text.substring(wordStart, i).toLowerCase(Locale.ROOT)).append('*');
+                wordStart = -1;
+            }
+        }
+        return matchQuery.length() > 0 ? matchQuery.toString() : null;
+    }
+
+    //The arguments of UPDATE_SQL and INSERT_SQL, the url comes last in both
+    private static void bindArticle(SQLiteStatement statement, News news) {
+        bindOrNull(statement, 1, news.getSectionId());
+        bindOrNull(statement, 2, news.getArticleCategory());
+        bindOrNull(statement, 3, news.getArticleTitle());
+        bindOrNull(statement, 4, news.getArticleAuthor());
+        statement.bindLong(5, news.getPublicationTime());
+        bindOrNull(statement, 6, news.getThumbnailUrl());
+        statement.bindString(7, news.getArticleUrl());
+    }
+
+    //Read every row of a cursor with the columns of PAGE_COLUMNS, and close it
+    private static List<News> readNews(Cursor cursor) {
+        List<News> news = new ArrayList<>(cursor.getCount());
+        try {
+            while (cursor.moveToNext()) {
+                news.add(new News(cursor.getString(0), cursor.getString(1), cursor.getString(2),
+                        cursor.getString(3), cursor.getString(4), cursor.getLong(5), cursor.getString(6)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return news;
+    }
+
+    private static void bindOrNull(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package com.example.android.project7_newsappstage2;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * Token based parser for the Guardian search response.
+ * <p>
+ * Unlike {@link QueryUtils#extractResultsFromJSON(String)} this never holds the whole
+ * response in memory: it walks {@code response.results[]} straight off the stream and hands
+ * every {@link News} to the listener as soon as its closing brace has been read.
+ */
+final class NewsStreamParser {
+
+    /**
+     * Receives each {@link News} as soon as it has been parsed.
+     */
+    interface OnNewsParsedListener {
+        void onNewsParsed(News news);
+    }
+
+    /**
+     * No one should create a {@link NewsStreamParser} object, it only holds static methods.
+     */
+    private NewsStreamParser() {
+    }
+
+    /**
+     * Parse the Guardian JSON response from the given stream.
+     *
+     * @param inputStream is the raw response body, it is not closed by this method
+     * @param listener    receives every parsed {@link News}
+     * @return the number of {@link News} that were passed to the listener
+     */
+    static int parse(InputStream inputStream, OnNewsParsedListener listener) throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(inputStream, Charset.forName("UTF-8")));
+        int count = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if ("response".equals(reader.nextName()) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                count += readResponse(reader, listener);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return count;
+    }
+
+    /**
+     * Parse the Guardian JSON response from a body that was read into memory. A long body is
+     * parsed on every core by the {@link ParallelNewsParser}, the listener then gets the news
+     * in order once they are all parsed.
+     *
+     * @param body     is the raw response body, it is not released by this method
+     * @param listener receives every parsed {@link News}
+     * @return the number of {@link News} that were passed to the listener
+     */
+    static int parse(ByteView body, OnNewsParsedListener listener) throws IOException {
+        if (ParallelNewsParser.isWorthIt(body.length)) {
+            List<News> news = ParallelNewsParser.parse(body);
+            if (news != null) {
+                for (News newsItem : news) {
+                    listener.onNewsParsed(newsItem);
+                }
+                return news.size();
+            }
+        }
+        return parse(body.openStream(), listener);
+    }
+
+    //Read the "response" object and walk its "results" array
+    private static int readResponse(JsonReader reader, OnNewsParsedListener listener) throws IOException {
+        int count = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if ("results".equals(reader.nextName()) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    listener.onNewsParsed(readNews(reader));
+                    count++;
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return count;
+    }
+
+    //Read a single result object, every key outside the NewsProjection is skipped
+    static News readNews(JsonReader reader) throws IOException {
+        String sectionId = null;
+        String category = null;
+        String title = null;
+        String url = null;
+        String author = null;
+        String thumbnailUrl = null;
+        long publicationTime = GuardianDateCodec.INVALID;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.skipValue();
+                continue;
+            }
+            switch (name) {
+                case NewsProjection.SECTION_ID:
+                    sectionId = reader.nextString();
+                    break;
+                case NewsProjection.SECTION_NAME:
+                    category = reader.nextString();
+                    break;
+                case NewsProjection.TITLE:
+                    title = reader.nextString();
+                    break;
+                case NewsProjection.URL:
+                    url = reader.nextString();
+                    break;
+                case NewsProjection.PUBLICATION_DATE:
+                    publicationTime = QueryUtils.getPublicationTime(reader.nextString());
+                    break;
+                case NewsProjection.FIELDS:
+                    if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                        reader.skipValue();
+                        break;
+                    }
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String field = reader.nextName();
+                        if (reader.peek() != JsonToken.STRING) {
+                            reader.skipValue();
+                        } else if (NewsProjection.FIELD_THUMBNAIL.equals(field)) {
+                            thumbnailUrl = reader.nextString();
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                    break;
+                case NewsProjection.TAGS:
+                    author = readFirstContributor(reader);
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+
+        return new News(sectionId, category, title, author, url, publicationTime, thumbnailUrl);
+    }
+
+    //Only the first tag holds the author, the remaining tags are skipped
+    private static String readFirstContributor(JsonReader reader) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+            reader.skipValue();
+            return null;
+        }
+        String author = null;
+
+        reader.beginArray();
+        if (reader.hasNext() && reader.peek() == JsonToken.BEGIN_OBJECT) {
+            String firstName = null;
+            String lastName = null;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (reader.peek() != JsonToken.STRING) {
+                    reader.skipValue();
+                } else if (NewsProjection.TAG_FIRST_NAME.equals(name)) {
+                    firstName = reader.nextString();
+                } else if (NewsProjection.TAG_LAST_NAME.equals(name)) {
+                    lastName = reader.nextString();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            author = QueryUtils.getAuthorName(firstName, lastName);
+        }
+        while (reader.hasNext()) {
+            reader.skipValue();
+        }
+        reader.endArray();
+
+        return author;
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.android.project7_newsappstage2;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Shares the strings that repeat across articles, such as section ids, section names and
+ * author names, so every article of a section points at the same string instead of a copy.
+ * <p>
+ * {@link String#intern()} would do, but its pool is never emptied, so this one is bounded and
+ * simply starts over once it is full. Looking a string up takes no lock, as every news created
+ * goes through here, also from the threads of the {@link ParallelNewsParser}.
+ */
+final class NewsStringPool {
+
+    /**
+     * Distinct values kept before the pool starts over, far more than a feed ever has
+     */
+    private static final int MAX_SIZE = 2048;
+
+    private static final ConcurrentHashMap<String, String> STRINGS = new ConcurrentHashMap<>();
+
+    /**
+     * Full author names by last name, then first name, so a known author is found without
+     * joining the names again
+     */
+    private static final ConcurrentHashMap<String, ConcurrentHashMap<String, String>> AUTHORS =
+            new ConcurrentHashMap<>();
+
+    /**
+     * No one should create a {@link NewsStringPool} object, it only holds static methods.
+     */
+    private NewsStringPool() {
+    }
+
+    /**
+     * Returns the shared string equal to the value, null if the value is null.
+     */
+    static String intern(String value) {
+        if (value == null) {
+            return null;
+        }
+        String shared = STRINGS.get(value);
+        if (shared != null) {
+            return shared;
+        }
+        if (STRINGS.size() >= MAX_SIZE) {
+            STRINGS.clear();
+        }
+        shared = STRINGS.putIfAbsent(value, value);
+        return shared != null ? shared : value;
+    }
+
+    /**
+     * Returns the shared "first last" name of an author, both names are present and not empty.
+     */
+    static String authorName(String firstName, String lastName) {
+        ConcurrentHashMap<String, String> byFirstName = AUTHORS.get(lastName);
+        if (byFirstName == null) {
+            if (AUTHORS.size() >= MAX_SIZE) {
+                AUTHORS.clear();
+            }
+            ConcurrentHashMap<String, String> created = new ConcurrentHashMap<>(4);
+            byFirstName = AUTHORS.putIfAbsent(lastName, created);
+            if (byFirstName == null) {
+                byFirstName = created;
+            }
+        }
+        String name = byFirstName.get(firstName);
+        if (name == null) {
+            name = firstName + " " + lastName;
+            String shared = byFirstName.putIfAbsent(firstName, name);
+            if (shared != null) {
+                name = shared;
+            }
+        }
+        return name;
+    }
+}
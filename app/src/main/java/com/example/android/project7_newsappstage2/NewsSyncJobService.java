@@ -0,0 +1,141 @@
+package com.example.android.project7_newsappstage2;
+
+import android.annotation.TargetApi;
+import android.app.job.JobParameters;
+import android.app.job.JobService;
+import android.os.Build;
+import android.util.Log;
+import android.util.SparseArray;
+
+import java.util.List;
+
+/**
+ * Fetches the first page of the feed in the background and stores it in {@link NewsCache} and
+ * {@link NewsStore}, so {@link NewsActivity} can show it from disk as soon as it starts.
+ * <p>
+ * The job is scheduled by {@link NewsSyncScheduler} and reads the settings every time it runs,
+ * so it always syncs the query the list is going to ask for. The unmetered and the charging job
+ * may run at the same time, each one in its own thread, and stopping a job cancels only its own
+ * download, before anything is written.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class NewsSyncJobService extends JobService {
+
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = NewsSyncJobService.class.getName();
+
+    /**
+     * The sync of every running job, by job id. Guarded by itself.
+     */
+    private final SparseArray<Sync> syncs = new SparseArray<>(2);
+
+    //The thread of a running job and what stops its download
+    private static final class Sync {
+
+        final Thread thread;
+
+        final CancellationToken cancellation;
+
+        Sync(Thread thread, CancellationToken cancellation) {
+            this.thread = thread;
+            this.cancellation = cancellation;
+        }
+    }
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        final CancellationToken cancellation = new CancellationToken();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                boolean synced = sync(cancellation);
+                synchronized (syncs) {
+                    // Unless the job was stopped and has started again since
+                    Sync running = syncs.get(params.getJobId());
+                    if (running != null && running.cancellation == cancellation) {
+                        syncs.remove(params.getJobId());
+                    }
+                }
+                if (!cancellation.isCancelled()) {
+                    // Retry with the default back off if the sync failed
+                    jobFinished(params, !synced);
+                }
+            }
+        }, LOG_TAG + "-" + params.getJobId());
+        synchronized (syncs) {
+            syncs.put(params.getJobId(), new Sync(thread, cancellation));
+        }
+        thread.start();
+
+        // The work goes on in the sync thread
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        // The conditions are no longer met, the next periodic run tries again
+        Sync sync;
+        synchronized (syncs) {
+            sync = syncs.get(params.getJobId());
+            syncs.remove(params.getJobId());
+        }
+        if (sync != null) {
+            // Disconnects the download, a blocked read ignores the interrupt
+            sync.cancellation.cancel();
+            sync.thread.interrupt();
+        }
+        return false;
+    }
+
+    //Fetch and store the first page, returns false if it could not be fetched or the job was
+    //stopped, nothing is written then
+    private boolean sync(CancellationToken cancellation) {
+        int pageSize = NewsQuery.getPageSize(this);
+        List<String> urls = NewsQuery.buildNewsUrls(this, pageSize, 1);
+        String key = NewsQuery.getCacheKey(urls);
+        NewsCache newsCache = NewsCache.getInstance(this);
+
+        // The other job, or the list itself, may have just refreshed it
+        NewsCache.Entry cached = newsCache.get(key);
+        if (cached != null && cached.isFresh()) {
+            return true;
+        }
+
+        List<News> news;
+        MultiSectionFetcher.Result merged = null;
+        boolean delta = DeltaSync.canRefresh(urls, cached);
+        if (delta) {
+            // Only what was published since the last sync
+            merged = DeltaSync.refresh(urls, cached, pageSize, cancellation);
+            news = merged != null ? merged.news : null;
+        } else if (urls.size() > 1) {
+            merged = MultiSectionFetcher.fetchNewsItemsData(urls, cancellation);
+            news = merged != null ? merged.news : null;
+        } else {
+            news = NewsRequestCoalescer.getInstance().fetchNewsItemsData(key, null, cancellation);
+        }
+        if (cancellation.isCancelled()) {
+            return false;
+        }
+        if (news == null) {
+            Log.e(LOG_TAG, "Error syncing news");
+            return false;
+        }
+        if (merged != null && merged.partial) {
+            // Some sections failed, the next sync or load asks for them again
+            newsCache.putPartial(key, news, cached,
+                    delta ? cached.downloadedAt : System.currentTimeMillis());
+        } else if (delta) {
+            newsCache.put(key, news, System.currentTimeMillis(), cached.downloadedAt);
+        } else {
+            newsCache.put(key, news);
+        }
+        if (urls.size() == 1) {
+            ReloadPlanner.getInstance().onPageCached(key);
+        }
+        NewsStore.getInstance(this).upsert(news);
+        return true;
+    }
+}
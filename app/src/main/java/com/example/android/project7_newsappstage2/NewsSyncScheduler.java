@@ -0,0 +1,78 @@
+package com.example.android.project7_newsappstage2;
+
+import android.annotation.TargetApi;
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Build;
+
+/**
+ * Schedules {@link NewsSyncJobService} to run periodically, but only while it is cheap for the
+ * user: on an unmetered network, or while the device is charging.
+ * <p>
+ * The constraints of a single job all have to be met, so each condition gets its own job.
+ * Whichever runs second finds the cache fresh and does nothing. Background sync needs
+ * JobScheduler, so on older versions the list simply loads on launch like before.
+ */
+final class NewsSyncScheduler {
+
+    private static final int UNMETERED_JOB_ID = 1;
+
+    private static final int CHARGING_JOB_ID = 2;
+
+    /**
+     * How often the feed is synced, the news cache keeps results fresh for ten minutes
+     */
+    private static final long SYNC_INTERVAL_MILLIS = 60 * 60 * 1000;
+
+    /**
+     * No one should create a {@link NewsSyncScheduler} object, it only holds static methods.
+     */
+    private NewsSyncScheduler() {
+    }
+
+    /**
+     * Schedule the sync jobs unless they are already scheduled.
+     */
+    static void schedule(Context context) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            return;
+        }
+        scheduleJobs(context.getApplicationContext());
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static void scheduleJobs(Context context) {
+        JobScheduler jobScheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if (jobScheduler == null) {
+            return;
+        }
+
+        // Scheduling a job again would restart its period, so only add the missing ones
+        boolean unmeteredScheduled = false;
+        boolean chargingScheduled = false;
+        for (JobInfo jobInfo : jobScheduler.getAllPendingJobs()) {
+            if (jobInfo.getId() == UNMETERED_JOB_ID) {
+                unmeteredScheduled = true;
+            } else if (jobInfo.getId() == CHARGING_JOB_ID) {
+                chargingScheduled = true;
+            }
+        }
+
+        ComponentName service = new ComponentName(context, NewsSyncJobService.class);
+        if (!unmeteredScheduled) {
+            jobScheduler.schedule(new JobInfo.Builder(UNMETERED_JOB_ID, service)
+                    .setRequiredNetworkType(JobInfo.NETWORK_TYPE_UNMETERED)
+                    .setPeriodic(SYNC_INTERVAL_MILLIS)
+                    .build());
+        }
+        if (!chargingScheduled) {
+            jobScheduler.schedule(new JobInfo.Builder(CHARGING_JOB_ID, service)
+                    .setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY)
+                    .setRequiresCharging(true)
+                    .setPeriodic(SYNC_INTERVAL_MILLIS)
+                    .build());
+        }
+    }
+}
@@ -0,0 +1,328 @@
+package com.example.android.project7_newsappstage2;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+
+import com.google.gson.stream.JsonReader;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.SequenceInputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Parses the results of a response body held in memory on every core.
+ * <p>
+ * One pass over the bytes finds where every item of {@code response.results[]} starts and
+ * ends, minding strings and nesting but decoding nothing. The items are then parsed in chunks
+ * on a fork/join pool, every chunk with its own {@link JsonReader}, and every news is written
+ * to the slot of its item, so they come out in their original order.
+ * <p>
+ * The scan and the tasks cost more than they save on short bodies, so
+ * {@link NewsStreamParser} only comes here for bodies of {@link #MIN_BODY_BYTES} or more on a
+ * device with four cores or more, and of {@link #MIN_BODY_BYTES_FEW_CORES} or more on one with
+ * two or three. {@link ForkJoinPool} is only there from Lollipop on.
+ * <p>
+ * Those thresholds were worked out on a single core, so the parser is off until they have been
+ * confirmed on real devices. It is turned on from the metrics screen, and the parse stage of
+ * {@link NewsMetrics} then tells whether a device gains from it.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+final class ParallelNewsParser {
+
+    /**
+     * Bodies shorter than this are parsed on one thread with four cores, about 100 results of
+     * the projected query. ParallelParseBenchmark worked out four cores from one: the parallel
+     * parse took 0.53 to 1.14 of the sequential time below that, and never more than 0.76 from it on.
+     */
+    static final int MIN_BODY_BYTES = 64 * 1024;
+
+    /**
+     * The same with two or three cores, about 400 results. Two cores worked out the same way
+     * took 0.51 to 1.73 of the time up to 200 results, and never more than 0.84 from 500 on.
+     */
+    static final int MIN_BODY_BYTES_FEW_CORES = 256 * 1024;
+
+    /**
+     * Fewest items parsed by one task
+     */
+    private static final int MIN_CHUNK_ITEMS = 8;
+
+    /**
+     * Chunks per thread, so a thread that is done early takes over the work of another
+     */
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final byte[] RESPONSE = "response".getBytes(UTF_8);
+
+    private static final byte[] RESULTS = "results".getBytes(UTF_8);
+
+    private static final byte[] ARRAY_START = {'['};
+
+    private static final byte[] ARRAY_END = {']'};
+
+    private static final int PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Off by default, see the class documentation
+     */
+    private static volatile boolean enabled;
+
+    //Created on first use, most devices never parse a body that long
+    private static final class PoolHolder {
+        static final ForkJoinPool POOL = new ForkJoinPool(PARALLELISM);
+    }
+
+    /**
+     * No one should create a {@link ParallelNewsParser} object, it only holds static methods.
+     */
+    private ParallelNewsParser() {
+    }
+
+    /**
+     * Turn parsing on several threads on or off, for measuring it on a device.
+     */
+    static void setEnabled(boolean enabled) {
+        ParallelNewsParser.enabled = enabled;
+    }
+
+    static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns true if parsing on several threads is turned on and a body of that length is worth
+     * parsing that way.
+     */
+    static boolean isWorthIt(int length) {
+        return enabled && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP && PARALLELISM > 1
+                && length >= (PARALLELISM >= 4 ? MIN_BODY_BYTES : MIN_BODY_BYTES_FEW_CORES);
+    }
+
+    /**
+     * Parse the results of the body on the shared pool.
+     *
+     * @return the news in the order of the results, or null if the body is not laid out as
+     * expected, it should then be parsed on one thread
+     */
+    static List<News> parse(ByteView body) throws IOException {
+        return parse(body, PoolHolder.POOL);
+    }
+
+    /**
+     * Parse the results of the body on the pool.
+     *
+     * @return the news in the order of the results, or null if the body is not laid out as
+     * expected, it should then be parsed on one thread
+     */
+    static List<News> parse(ByteView body, ForkJoinPool pool) throws IOException {
+        int[] bounds = findItems(body.data, body.length);
+        if (bounds == null) {
+            return null;
+        }
+        int items = bounds.length / 2;
+        if (items == 0) {
+            return Collections.emptyList();
+        }
+        News[] parsed = new News[items];
+        int chunkItems = Math.max(MIN_CHUNK_ITEMS, items / (pool.getParallelism() * CHUNKS_PER_THREAD));
+        try {
+            pool.invoke(new ParseTask(body, bounds, parsed, 0, items, chunkItems));
+        } catch (RuntimeException e) {
+            // The pool may wrap the failure of a chunk once more when it rethrows it
+            for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+            }
+            throw e;
+        }
+        return Arrays.asList(parsed);
+    }
+
+    /**
+     * Returns where every item of {@code response.results[]} starts and where it ends, two
+     * offsets per item, or null if the results are missing or not all objects.
+     */
+    static int[] findItems(byte[] data, int length) {
+        int[] bounds = new int[64];
+        int count = 0;
+        int depth = 0;
+        // The last string read, and the last one followed by a colon
+        int stringStart = -1;
+        int stringEnd = -1;
+        int keyStart = -1;
+        int keyEnd = -1;
+        boolean inResponse = false;
+        boolean inResults = false;
+        int itemStart = -1;
+
+        for (int i = 0; i < length; i++) {
+            byte c = data[i];
+            switch (c) {
+                case '"':
+                    stringStart = i + 1;
+                    i = skipString(data, stringStart, length);
+                    if (i < 0) {
+                        return null;
+                    }
+                    stringEnd = i;
+                    break;
+                case ':':
+                    keyStart = stringStart;
+                    keyEnd = stringEnd;
+                    break;
+                case '{':
+                case '[':
+                    depth++;
+                    if (inResults) {
+                        if (depth == 4) {
+                            if (c != '{') {
+                                return null;
+                            }
+                            itemStart = i;
+                        }
+                    } else if (inResponse) {
+                        inResults = depth == 3 && c == '[' && isKey(data, keyStart, keyEnd, RESULTS);
+                    } else {
+                        inResponse = depth == 2 && c == '{' && isKey(data, keyStart, keyEnd, RESPONSE);
+                    }
+                    break;
+                case '}':
+                case ']':
+                    if (inResults && depth == 4) {
+                        if (count == bounds.length) {
+                            bounds = Arrays.copyOf(bounds, count * 2);
+                        }
+                        bounds[count++] = itemStart;
+                        bounds[count++] = i + 1;
+                    } else if (inResults && depth == 3) {
+                        return Arrays.copyOf(bounds, count);
+                    } else if (inResponse && depth == 2) {
+                        // The response ended without results
+                        return null;
+                    }
+                    depth--;
+                    break;
+                case ',':
+                case ' ':
+                case '\t':
+                case '\n':
+                case '\r':
+                    break;
+                default:
+                    if (inResults && depth == 3) {
+                        // A result that is not an object
+                        return null;
+                    }
+                    break;
+            }
+        }
+        return null;
+    }
+
+    //Returns the offset of the quote closing the string starting at the offset, -1 if none
+    private static int skipString(byte[] data, int start, int length) {
+        for (int i = start; i < length; i++) {
+            if (data[i] == '\\') {
+                i++;
+            } else if (data[i] == '"') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    //Returns true if the string between the offsets is the key, escaped keys never are
+    private static boolean isKey(byte[] data, int start, int end, byte[] key) {
+        if (start < 0 || end - start != key.length) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (data[start + i] != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses the items from one index to another, splitting them in two until they make a chunk.
+     */
+    private static final class ParseTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final ByteView body;
+
+        private final int[] bounds;
+
+        private final News[] parsed;
+
+        private final int from;
+
+        private final int to;
+
+        private final int chunkItems;
+
+        ParseTask(ByteView body, int[] bounds, News[] parsed, int from, int to, int chunkItems) {
+            this.body = body;
+            this.bounds = bounds;
+            this.parsed = parsed;
+            this.from = from;
+            this.to = to;
+            this.chunkItems = chunkItems;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > chunkItems) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ParseTask(body, bounds, parsed, from, middle, chunkItems),
+                        new ParseTask(body, bounds, parsed, middle, to, chunkItems));
+                return;
+            }
+            try {
+                parseChunk();
+            } catch (IOException e) {
+                throw new ChunkFailure(e);
+            }
+        }
+
+        //The items of the chunk and the commas between them, read as one array
+        private void parseChunk() throws IOException {
+            int start = bounds[from * 2];
+            int end = bounds[to * 2 - 1];
+            InputStream chunk = new SequenceInputStream(new ByteArrayInputStream(ARRAY_START),
+                    new SequenceInputStream(new ByteArrayInputStream(body.data, start, end - start),
+                            new ByteArrayInputStream(ARRAY_END)));
+            JsonReader reader = new JsonReader(new InputStreamReader(chunk, UTF_8));
+            reader.beginArray();
+            for (int i = from; i < to; i++) {
+                parsed[i] = NewsStreamParser.readNews(reader);
+            }
+            reader.endArray();
+        }
+    }
+
+    /**
+     * Carries the failure of a chunk out of the pool
+     */
+    private static final class ChunkFailure extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        ChunkFailure(IOException cause) {
+            super(cause);
+        }
+    }
+}
@@ -7,19 +7,15 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.nio.charset.Charset;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 
 /**
@@ -32,6 +28,11 @@ final class QueryUtils {
      */
     private static final String LOG_TAG = QueryUtils.class.getName();
 
+    /**
+     * A Content-Length above this is not trusted for the size of the first array
+     */
+    private static final int MAX_LENGTH_HINT = 4 * 1024 * 1024;
+
     /**
      * Create a private constructor because no one should ever create a {@link QueryUtils} object.
      * This class is only meant to hold static variables and methods, which can be accessed
@@ -44,40 +45,54 @@ final class QueryUtils {
      * Query the Guardian dataset and return a list of {@link News} objects.
      */
     public static List<News> fetchNewsItemsData(String requestUrl) {
+        return fetchNewsItemsData(requestUrl, null);
+    }
 
-        // Create URL object
-        URL url = createUrl(requestUrl);
-
-        // Perform HTTP request to the URL and receive a JSON response back
-        String jsonResponse;
+    /**
+     * Query the Guardian dataset and return a list of {@link News} objects.
+     * The response is parsed straight off the connection, so every {@link News} is passed to
+     * the listener (if any) while the rest of the body is still being downloaded.
+     */
+    public static List<News> fetchNewsItemsData(String requestUrl,
+                                                NewsStreamParser.OnNewsParsedListener listener) {
+        return fetchNewsItemsData(requestUrl, listener, null);
+    }
 
-        //Initiate data fetch from the internet and store the resultant JSON string
-        jsonResponse = initHttpRequest(url);
+    /**
+     * Query the Guardian dataset and return a list of {@link News} objects, streaming every
+     * {@link News} to the listener (if any). Cancelling the token aborts the download.
+     */
+    static List<News> fetchNewsItemsData(String requestUrl,
+                                         NewsStreamParser.OnNewsParsedListener listener,
+                                         CancellationToken cancellation) {
 
-        /*
-        Use the jsonResponse string to extract News properties and return
-        ArrayList to the List<News> news array
-        */
-        List<News> news = extractResultsFromJSON(jsonResponse);
+        // Create URL object
+        URL url = createUrl(requestUrl);
 
-        //Return the populated list the loadInBackground method in NewsLoader
-        return news;
+        //Initiate data fetch from the internet and parse the response while it arrives
+        return initHttpRequest(url, listener, cancellation);
     }
 
     /*
     Method to extract JSON Objects and arrays and use them to
     get NewsItem data then add them to ArrayList and return it.
+    This is the buffered path, fetchNewsItemsData uses NewsStreamParser instead.
     */
-    private static List<News> extractResultsFromJSON(String newsJSON) {
+    static List<News> extractResultsFromJSON(String newsJSON) {
 
         //Check if the passed JSON string is empty, if so then just return null.
         if (TextUtils.isEmpty(newsJSON)) {
             return null;
         }
 
+        long start = System.nanoTime();
+
         //List used to store the data extracted from JSON objects and arrays
         List<News> newsArrayList = new ArrayList<>();
 
+        //Store section id
+        String sectionId;
+
         //Store section
         String category;
 
@@ -99,8 +114,11 @@ final class QueryUtils {
         //Store the raw date string from JSON object
         String rawDate;
 
-        //Stores the formatted raw date in News object
-        String date;
+        //Stores the raw date as milliseconds since the epoch, it is formatted when shown
+        long publicationTime;
+
+        //Store the url of the thumbnail (if any available)
+        String thumbnailUrl;
 
         /*
         Fetch JSON objects and arrays and use them to get NewsItem data
@@ -117,25 +135,26 @@ final class QueryUtils {
             */
             for (int i = 0; i < jsonResultsArray.length(); i++) {
                 JSONObject currentJson = jsonResultsArray.getJSONObject(i);
-                title = currentJson.getString("webTitle");
-                category = currentJson.getString("sectionName");
-                url = currentJson.getString("webUrl");
-                JSONArray tagsArray = currentJson.getJSONArray("tags");
+                title = currentJson.getString(NewsProjection.TITLE);
+                sectionId = currentJson.optString(NewsProjection.SECTION_ID, null);
+                category = currentJson.getString(NewsProjection.SECTION_NAME);
+                url = currentJson.getString(NewsProjection.URL);
+                JSONArray tagsArray = currentJson.optJSONArray(NewsProjection.TAGS);
 
                 //Check if there is a tags JSONArray that contains contributor/author name
-                if (!tagsArray.isNull(0)) {
+                if (tagsArray != null && tagsArray.optJSONObject(0) != null) {
                     JSONObject currentTagObj = tagsArray.getJSONObject(0);
 
                     //Check if there is first name and store otherwise set it to null
-                    if (!currentTagObj.isNull("firstName")) {
-                        firstName = currentTagObj.getString("firstName");
+                    if (!currentTagObj.isNull(NewsProjection.TAG_FIRST_NAME)) {
+                        firstName = currentTagObj.getString(NewsProjection.TAG_FIRST_NAME);
                     } else {
                         firstName = null;
                     }
 
                     //Check if there is last name and store otherwise set it to null
-                    if (!currentTagObj.isNull("lastName")) {
-                        lastName = currentTagObj.getString("lastName");
+                    if (!currentTagObj.isNull(NewsProjection.TAG_LAST_NAME)) {
+                        lastName = currentTagObj.getString(NewsProjection.TAG_LAST_NAME);
                     } else {
                         lastName = null;
                     }
@@ -147,124 +166,183 @@ final class QueryUtils {
                 }
 
                 //Check if there is JSON date in the Json array otherwise return null
-                if (!currentJson.isNull("webPublicationDate")) {
-                    rawDate = currentJson.getString("webPublicationDate");
-                    date = getFormattedDate(rawDate); //Format raw date and store it in date
+                if (!currentJson.isNull(NewsProjection.PUBLICATION_DATE)) {
+                    rawDate = currentJson.getString(NewsProjection.PUBLICATION_DATE);
+                    publicationTime = getPublicationTime(rawDate);
+                } else {
+                    publicationTime = GuardianDateCodec.INVALID;
+                }
+
+                //Check if there is a thumbnail in the fields object otherwise set it to null
+                JSONObject fieldsObj = currentJson.optJSONObject(NewsProjection.FIELDS);
+                if (fieldsObj != null && !fieldsObj.isNull(NewsProjection.FIELD_THUMBNAIL)) {
+                    thumbnailUrl = fieldsObj.getString(NewsProjection.FIELD_THUMBNAIL);
                 } else {
-                    date = null;
+                    thumbnailUrl = null;
                 }
 
                 //Add the fetched NewsItem properties to the newsItemsArrayList
-                newsArrayList.add(new News(category, title, author, date, url));
+                newsArrayList.add(new News(sectionId, category, title, author, url, publicationTime, thumbnailUrl));
             }
 
         } catch (JSONException e) {
             e.printStackTrace();
         }
 
+        NewsMetrics.record(NewsMetrics.STAGE_EXTRACT_JSON, start);
+
         //return the newsArrayList
         return newsArrayList;
 
     }
 
     //Format the raw date fetched from the JSON object and a user friendly date
-    private static String getFormattedDate(String rawDate) {
-        if (rawDate == null) {
-            return null;
-        }
-        Date date = null;
-        SimpleDateFormat formattedDate = new SimpleDateFormat("MMM dd, yyyy / HH:mm");
-        try {
-            date = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'").parse(rawDate);
-        } catch (ParseException e) {
-            e.printStackTrace();
-        }
+    static String getFormattedDate(String rawDate) {
+        return GuardianDateCodec.format(GuardianDateCodec.parse(rawDate));
+    }
 
-        return formattedDate.format(date);
+    //Parse the raw date fetched from the JSON object into milliseconds since the epoch, 0 if invalid
+    static long getPublicationTime(String rawDate) {
+        return GuardianDateCodec.parse(rawDate);
     }
 
     /*
     Get the first name and last name if available and return the
-    formatted available names, otherwise null
+    formatted available names, otherwise null. Names already seen
+    are shared rather than joined again.
     */
-    private static String getAuthorName(String firstName, String lastName) {
+    static String getAuthorName(String firstName, String lastName) {
         if (firstName == null && lastName == null) {
             return null;
         } else if (firstName == null || firstName.isEmpty()) {
-            return lastName;
+            return NewsStringPool.intern(lastName);
         } else if (lastName == null || lastName.isEmpty()) {
-            return firstName;
+            return NewsStringPool.intern(firstName);
         } else {
-            return (firstName + " " + lastName);
+            return NewsStringPool.authorName(firstName, lastName);
         }
     }
 
     /*
-    Initiate internet connection and fetch JSON string
-    from the Json data source URL
+    Initiate internet connection and stream the JSON response
+    from the Json data source URL into the parser
     */
-    private static String initHttpRequest(URL ncUrl) {
-        String jsonResponse = null;
-
+    private static List<News> initHttpRequest(URL ncUrl,
+                                              final NewsStreamParser.OnNewsParsedListener listener,
+                                              CancellationToken cancellation) {
         if (ncUrl == null) {
-            return jsonResponse;
+            return null;
         }
 
-        HttpURLConnection urlConnection = null;
-        InputStream inputStream = null;
-
-        try {
-            urlConnection = (HttpURLConnection) ncUrl.openConnection();
-            urlConnection.setConnectTimeout(1500);
-            urlConnection.setReadTimeout(5000);
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
-
-            if (urlConnection.getResponseCode() == HttpURLConnection.HTTP_OK) {
-                inputStream = urlConnection.getInputStream();
-                jsonResponse = readFromStream(inputStream);
-            } else {
-                Log.e(LOG_TAG, "Error response code: " + urlConnection.getResponseCode());
-            }
+        long start = System.nanoTime();
+        long allocations = NewsMetrics.threadAllocations();
+        NewsHttpClient.Result<List<News>> result = NewsHttpClient.getInstance().get(ncUrl,
+                new NewsHttpClient.ResponseParser<List<News>>() {
+
+                    //Urls of the news already streamed by an attempt that failed half way
+                    private final Set<String> delivered = new HashSet<>();
+
+                    private boolean retry;
+
+                    @Override
+                    public List<News> parse(InputStream body, long contentLength) throws IOException {
+                        final boolean firstAttempt = !retry;
+                        retry = true;
+                        //List used to store the news as they come out of the parser
+                        final List<News> news = new ArrayList<>();
+                        NewsStreamParser.OnNewsParsedListener collector = new NewsStreamParser.OnNewsParsedListener() {
+                            @Override
+                            public void onNewsParsed(News newsItem) {
+                                news.add(newsItem);
+                                //A retry starts over, and articles may have been published
+                                //meanwhile, so skip the articles the listener already has
+                                if (listener != null
+                                        && (delivered.add(newsItem.getArticleUrl()) || firstAttempt)) {
+                                    listener.onNewsParsed(newsItem);
+                                }
+                            }
+                        };
+                        if (listener != null) {
+                            //Parse while the body arrives, so the first news show up early
+                            NewsStreamParser.parse(body, collector);
+                        } else {
+                            //Nobody is waiting for single news, so download the body at full
+                            //speed into a pooled array and parse it from there. A cut off body
+                            //then fails before anything was parsed.
+                            ByteView bytes = readBody(body, contentLength);
+                            try {
+                                NewsStreamParser.parse(bytes, collector);
+                            } finally {
+                                bytes.release();
+                            }
+                        }
+                        return Collections.unmodifiableList(news);
+                    }
+                }, cancellation);
 
-        } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
-            }
-            if (inputStream != null) {
-                // Closing the input stream could throw an IOException, which is why
-                // the makeHttpRequest(URL url) method signature specifies than an IOException
-                // could be thrown.
-                try {
-                    inputStream.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
+        NewsMetrics.record(NewsMetrics.STAGE_FETCH, start);
+        NewsMetrics.countAllocations(allocations);
+        NewsMetrics.count(NewsMetrics.COUNTER_BYTES_DOWNLOADED, result.bytesReceived);
+        if (result.value != null && !result.isNotModified() && !result.isCircuitOpen()) {
+            NewsMetrics.count(NewsMetrics.COUNTER_ITEMS_PARSED, result.value.size());
         }
-        return jsonResponse;
+
+        return result.value;
     }
 
-    //Read the raw byte stream and return the whole stream as String
-    private static String readFromStream(InputStream inputStream) throws IOException {
+    //Read the raw byte stream and return the whole stream as String, decoded in one go
+    static String readFromStream(InputStream inputStream) throws IOException {
 
         //Check if InputStream is available otherwise return null
         if (inputStream == null) {
             return null;
         }
 
-        StringBuilder output = new StringBuilder();
-        InputStreamReader inputStreamReader = new InputStreamReader(inputStream, Charset.forName("UTF-8"));
-        BufferedReader bufferedReader = new BufferedReader(inputStreamReader);
-        String line = bufferedReader.readLine();
-        while (line != null) {
-            output.append(line);
-            line = bufferedReader.readLine();
+        ByteView body = readBody(inputStream, -1);
+        try {
+            return body.decode();
+        } finally {
+            body.release();
+        }
+    }
+
+    /*
+    Read the raw byte stream into an array of the ByteArrayPool. A known length
+    gets an array of the right size straight away, otherwise the array doubles
+    as the body arrives. Release the returned view once it has been parsed.
+    */
+    static ByteView readBody(InputStream inputStream, long contentLength) throws IOException {
+        long start = System.nanoTime();
+        ByteArrayPool pool = ByteArrayPool.getInstance();
+        byte[] buffer = pool.acquire(contentLength > 0 ? (int) Math.min(contentLength, MAX_LENGTH_HINT) : 0);
+        int length = 0;
+        try {
+            while (true) {
+                if (length == buffer.length) {
+                    //Full, which is the end of the body if the length was right
+                    int next = inputStream.read();
+                    if (next == -1) {
+                        break;
+                    }
+                    byte[] bigger = pool.acquire(buffer.length * 2);
+                    System.arraycopy(buffer, 0, bigger, 0, length);
+                    pool.release(buffer);
+                    buffer = bigger;
+                    buffer[length++] = (byte) next;
+                }
+                int read = inputStream.read(buffer, length, buffer.length - length);
+                if (read == -1) {
+                    break;
+                }
+                length += read;
+            }
+        } catch (IOException e) {
+            pool.release(buffer);
+            throw e;
         }
 
-        return output.toString();
+        NewsMetrics.record(NewsMetrics.STAGE_READ_STREAM, start);
+        return new ByteView(buffer, length);
     }
 
     //Method constructs URL from string and returns URL object
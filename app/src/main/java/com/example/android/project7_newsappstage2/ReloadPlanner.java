@@ -0,0 +1,192 @@
+package com.example.android.project7_newsappstage2;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Works out what a load still has to download when the page size changed, so the articles
+ * already held for the section are not downloaded again.
+ * <p>
+ * The first page of a section cached with the old page size holds the start of the new one.
+ * When the new page is longer, the rest is asked for as the next pages of the old size: going
+ * from 10 to 20 articles only downloads page 2 of 10. When it is shorter, nothing is downloaded.
+ * Only fresh cached pages are used, so the articles are as recent as a cache hit would be.
+ */
+final class ReloadPlanner {
+
+    /**
+     * Requests a plan may make, beyond that a single request for the whole page is cheaper
+     */
+    static final int MAX_REQUESTS = 2;
+
+    /**
+     * Page sizes remembered per section, the most recent first
+     */
+    private static final int MAX_PAGE_SIZES = 3;
+
+    private static final ReloadPlanner INSTANCE = new ReloadPlanner();
+
+    /**
+     * Page sizes the first page of a section was cached with, by ordering key. Guarded by itself.
+     */
+    private final Map<String, List<Integer>> cachedPageSizes = new HashMap<>();
+
+    /**
+     * What a load can reuse, and what it still has to download.
+     */
+    static final class Plan {
+
+        final List<News> held;
+
+        /**
+         * The cached first page of the old size
+         */
+        final NewsCache.Entry heldEntry;
+
+        /**
+         * Query URLs of the pages of the old size still missing, in order. Empty if the held
+         * news already cover the page.
+         */
+        final List<String> missingUrls;
+
+        /**
+         * Range of the requested page in the section
+         */
+        private final int start;
+
+        private final int end;
+
+        Plan(NewsCache.Entry held, List<String> missingUrls, int start, int end) {
+            heldEntry = held;
+            this.held = held.news;
+            this.missingUrls = missingUrls;
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * Returns the held news that belong to the requested page, in order.
+         */
+        List<News> getHeldNews() {
+            return held.subList(Math.min(start, held.size()), Math.min(end, held.size()));
+        }
+
+        /**
+         * Returns the requested page, made of the held news and the missing pages.
+         * <p>
+         * Articles published in between shift the pages, so an article may come twice and is
+         * only kept the first time.
+         */
+        List<News> complete(List<List<News>> missingPages) {
+            List<News> section = new ArrayList<>(held);
+            Set<String> urls = new HashSet<>();
+            for (News news : held) {
+                urls.add(news.getArticleUrl());
+            }
+            for (List<News> page : missingPages) {
+                for (News news : page) {
+                    if (urls.add(news.getArticleUrl())) {
+                        section.add(news);
+                    }
+                }
+            }
+            return new ArrayList<>(section.subList(Math.min(start, section.size()),
+                    Math.min(end, section.size())));
+        }
+    }
+
+    /**
+     * No one else should create a {@link ReloadPlanner} object, it is shared by the whole app.
+     */
+    private ReloadPlanner() {
+    }
+
+    static ReloadPlanner getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Remember that the news of a single section query URL were cached, so later loads with
+     * another page size can reuse them.
+     */
+    void onPageCached(String url) {
+        if (NewsQuery.getRequestedPage(url) != 1) {
+            return;
+        }
+        Integer pageSize = NewsQuery.getRequestedPageSize(url);
+        String key = NewsQuery.getOrderingKey(url);
+        synchronized (cachedPageSizes) {
+            List<Integer> pageSizes = cachedPageSizes.get(key);
+            if (pageSizes == null) {
+                pageSizes = new ArrayList<>(MAX_PAGE_SIZES);
+                cachedPageSizes.put(key, pageSizes);
+            }
+            pageSizes.remove(pageSize);
+            pageSizes.add(0, pageSize);
+            if (pageSizes.size() > MAX_PAGE_SIZES) {
+                pageSizes.remove(MAX_PAGE_SIZES);
+            }
+        }
+    }
+
+    /**
+     * Returns how to load the single section query URL from a fresh first page cached with
+     * another page size, null if there is none worth using.
+     */
+    Plan plan(NewsCache newsCache, String url) {
+        int pageSize = NewsQuery.getRequestedPageSize(url);
+        int page = NewsQuery.getRequestedPage(url);
+        List<Integer> pageSizes;
+        synchronized (cachedPageSizes) {
+            List<Integer> cached = cachedPageSizes.get(NewsQuery.getOrderingKey(url));
+            if (cached == null) {
+                return null;
+            }
+            pageSizes = new ArrayList<>(cached);
+        }
+
+        int start = (page - 1) * pageSize;
+        int end = page * pageSize;
+        for (int heldPageSize : pageSizes) {
+            if (heldPageSize == pageSize) {
+                continue;
+            }
+            NewsCache.Entry entry = newsCache.get(NewsQuery.withPage(url, heldPageSize, 1));
+            if (entry == null || !entry.isFresh()) {
+                continue;
+            }
+            int held = entry.news.size();
+            int missingPages = getMissingPages(start, end, held, heldPageSize);
+            if (missingPages < 0) {
+                continue;
+            }
+            List<String> missingUrls = new ArrayList<>(missingPages);
+            for (int i = 0; i < missingPages; i++) {
+                missingUrls.add(NewsQuery.withPage(url, heldPageSize, i + 2));
+            }
+            return new Plan(entry, missingUrls, start, end);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the number of pages of the held size to download after the held first page, so
+     * the articles from start to end are all there. A short first page is the whole section.
+     *
+     * @return -1 if the held page is of no use, or more than {@link #MAX_REQUESTS} are needed
+     */
+    static int getMissingPages(int start, int end, int held, int heldPageSize) {
+        if (held <= 0 || heldPageSize <= 0 || start >= held) {
+            return -1;
+        }
+        if (end <= held || held < heldPageSize) {
+            return 0;
+        }
+        int missingPages = (end + heldPageSize - 1) / heldPageSize - 1;
+        return missingPages <= MAX_REQUESTS ? missingPages : -1;
+    }
+}
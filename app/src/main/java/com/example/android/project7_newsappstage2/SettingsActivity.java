@@ -2,12 +2,19 @@ package com.example.android.project7_newsappstage2;
 
 import android.content.SharedPreferences;
 import android.preference.ListPreference;
+import android.preference.MultiSelectListPreference;
 import android.preference.Preference;
 import android.preference.PreferenceFragment;
 import android.preference.PreferenceManager;
 import android.support.annotation.NonNull;
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
+import android.text.TextUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
 
 public class SettingsActivity extends AppCompatActivity {
 
@@ -30,10 +37,21 @@ public class SettingsActivity extends AppCompatActivity {
 
             Preference orderBySection = findPreference(getString(R.string.settings_order_by_section_key));
             bindPreferenceSummaryToValue(orderBySection);
+
+            Preference combinedSections = findPreference(getString(R.string.settings_combined_sections_key));
+            combinedSections.setOnPreferenceChangeListener(this);
+            SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(combinedSections.getContext());
+            onPreferenceChange(combinedSections,
+                    preferences.getStringSet(combinedSections.getKey(), Collections.<String>emptySet()));
         }
 
         @Override
         public boolean onPreferenceChange(Preference preference, Object value){
+            if (preference instanceof MultiSelectListPreference){
+                setSectionsSummary((MultiSelectListPreference) preference, (Set<?>) value);
+                return true;
+            }
+
             String stringValue = value.toString();
 //            preference.setSummary(stringValue);
 
@@ -50,6 +68,23 @@ public class SettingsActivity extends AppCompatActivity {
             return true;
         }
 
+        //Show the labels of the selected sections, in the order of the list
+        private void setSectionsSummary(MultiSelectListPreference preference, Set<?> values){
+            CharSequence[] labels = preference.getEntries();
+            CharSequence[] entryValues = preference.getEntryValues();
+            List<CharSequence> selectedLabels = new ArrayList<>();
+            for (int i = 0; i < entryValues.length; i++){
+                if (values.contains(entryValues[i].toString())){
+                    selectedLabels.add(labels[i]);
+                }
+            }
+            if (selectedLabels.isEmpty()){
+                preference.setSummary(R.string.settings_combined_sections_none);
+            } else {
+                preference.setSummary(TextUtils.join(", ", selectedLabels));
+            }
+        }
+
         private void bindPreferenceSummaryToValue(Preference preference){
             preference.setOnPreferenceChangeListener(this);
             SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(preference.getContext());
@@ -0,0 +1,297 @@
+package com.example.android.project7_newsappstage2;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads article thumbnails into {@link ImageView}s.
+ * <p>
+ * Decoded bitmaps are kept in a memory cache bounded by their size in bytes, on top of a disk
+ * cache of the downloaded files, so scrolling back never downloads a thumbnail twice and
+ * memory stays within a fixed budget however long the list gets. Downloading and decoding run
+ * on a small pool, every image is downsampled to the size of its view, and the request of a
+ * view is cancelled as soon as the view is recycled for another article.
+ */
+final class ThumbnailLoader {
+
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = ThumbnailLoader.class.getName();
+
+    /**
+     * Upper bound of the memory cache, it gets less on devices with a small heap
+     */
+    private static final int MAX_MEMORY_BYTES = 8 * 1024 * 1024;
+
+    /**
+     * Maximum number of bytes of downloaded thumbnails kept on disk
+     */
+    private static final long MAX_DISK_BYTES = 10 * 1024 * 1024;
+
+    private static final String DIRECTORY_NAME = "thumbnails";
+
+    /**
+     * Number of thumbnails downloaded and decoded at the same time
+     */
+    private static final int THREADS = 2;
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 1500;
+
+    private static final int READ_TIMEOUT_MILLIS = 5000;
+
+    private static ThumbnailLoader instance;
+
+    private final LruCache<String, Bitmap> memoryCache;
+
+    private final DiskCache diskCache;
+
+    private final ThreadPoolExecutor executor;
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Returns the loader shared by the whole app.
+     */
+    static synchronized ThumbnailLoader getInstance(Context context) {
+        if (instance == null) {
+            File directory = new File(context.getApplicationContext().getCacheDir(), DIRECTORY_NAME);
+            // Never take more than an eighth of the heap
+            int memoryBytes = (int) Math.min(MAX_MEMORY_BYTES, Runtime.getRuntime().maxMemory() / 8);
+            instance = new ThumbnailLoader(new DiskCache(directory, MAX_DISK_BYTES), memoryBytes);
+        }
+        return instance;
+    }
+
+    ThumbnailLoader(DiskCache diskCache, int memoryBytes) {
+        this.diskCache = diskCache;
+        memoryCache = new LruCache<String, Bitmap>(memoryBytes) {
+            @Override
+            protected int sizeOf(String url, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+        };
+        executor = new ThreadPoolExecutor(THREADS, THREADS, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Show the thumbnail in the view, hiding the view if there is none.
+     * Any request still running for the view is cancelled. Must be called on the main thread.
+     */
+    void load(String url, ImageView imageView) {
+        Request previous = (Request) imageView.getTag();
+        if (previous != null) {
+            if (previous.url.equals(url)) {
+                // Already on its way
+                return;
+            }
+            previous.cancel();
+        }
+
+        if (url == null) {
+            imageView.setImageDrawable(null);
+            imageView.setVisibility(View.GONE);
+            return;
+        }
+        imageView.setVisibility(View.VISIBLE);
+
+        Bitmap bitmap = memoryCache.get(url);
+        if (bitmap != null) {
+            NewsMetrics.count(NewsMetrics.COUNTER_THUMBNAIL_MEMORY_HITS, 1);
+            imageView.setImageBitmap(bitmap);
+            return;
+        }
+
+        imageView.setImageDrawable(null);
+        Request request = new Request(url, imageView);
+        imageView.setTag(request);
+        request.future = executor.submit(request);
+    }
+
+    /**
+     * Cancel the request of a view that is no longer shown. Must be called on the main thread.
+     */
+    void cancel(ImageView imageView) {
+        Request request = (Request) imageView.getTag();
+        if (request != null) {
+            request.cancel();
+        }
+    }
+
+    //Returns the bitmap for the url from the disk cache or the network, downsampled for the view
+    private Bitmap fetchBitmap(Request request) {
+        byte[] data = diskCache.get(request.url);
+        if (data == null) {
+            NewsMetrics.count(NewsMetrics.COUNTER_THUMBNAIL_DOWNLOADS, 1);
+            data = download(request);
+            if (data == null) {
+                return null;
+            }
+            diskCache.put(request.url, data);
+        } else {
+            NewsMetrics.count(NewsMetrics.COUNTER_THUMBNAIL_DISK_HITS, 1);
+        }
+        if (request.cancelled) {
+            return null;
+        }
+        return decode(data, request.width, request.height);
+    }
+
+    //Download the whole image, null if it failed or the request was cancelled
+    private static byte[] download(Request request) {
+        HttpURLConnection urlConnection = null;
+        InputStream inputStream = null;
+        try {
+            urlConnection = (HttpURLConnection) new URL(request.url).openConnection();
+            urlConnection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+            urlConnection.setReadTimeout(READ_TIMEOUT_MILLIS);
+            if (urlConnection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                Log.e(LOG_TAG, "Error response code: " + urlConnection.getResponseCode());
+                return null;
+            }
+            inputStream = urlConnection.getInputStream();
+            ByteArrayOutputStream output = new ByteArrayOutputStream(Math.max(urlConnection.getContentLength(), 1024));
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                // Stop as soon as the row is recycled
+                if (request.cancelled) {
+                    urlConnection.disconnect();
+                    return null;
+                }
+                output.write(buffer, 0, read);
+            }
+            return output.toByteArray();
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error downloading thumbnail", e);
+            if (urlConnection != null) {
+                urlConnection.disconnect();
+            }
+            return null;
+        } finally {
+            if (inputStream != null) {
+                try {
+                    inputStream.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Decode the image, skipping pixels so it is no more than twice the size of the view.
+     */
+    static Bitmap decode(byte[] data, int width, int height) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight, width, height);
+        options.inJustDecodeBounds = false;
+        // Thumbnails have no transparency, so 2 bytes per pixel are enough
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+    }
+
+    /**
+     * Returns the largest power of two that keeps the image at least as large as the view.
+     */
+    static int calculateInSampleSize(int imageWidth, int imageHeight, int width, int height) {
+        int inSampleSize = 1;
+        if (width <= 0 || height <= 0) {
+            return inSampleSize;
+        }
+        while (imageWidth / (inSampleSize * 2) >= width && imageHeight / (inSampleSize * 2) >= height) {
+            inSampleSize *= 2;
+        }
+        return inSampleSize;
+    }
+
+    //Loads one thumbnail for one view
+    private final class Request implements Runnable {
+
+        final String url;
+
+        final ImageView imageView;
+
+        /**
+         * Size of the view in pixels, read on the main thread
+         */
+        final int width;
+
+        final int height;
+
+        volatile boolean cancelled;
+
+        Future<?> future;
+
+        Request(String url, ImageView imageView) {
+            this.url = url;
+            this.imageView = imageView;
+            ViewGroup.LayoutParams layoutParams = imageView.getLayoutParams();
+            width = layoutParams != null && layoutParams.width > 0 ? layoutParams.width : imageView.getWidth();
+            height = layoutParams != null && layoutParams.height > 0 ? layoutParams.height : imageView.getHeight();
+        }
+
+        //Called on the main thread
+        void cancel() {
+            cancelled = true;
+            if (future != null) {
+                future.cancel(false);
+            }
+            if (imageView.getTag() == this) {
+                imageView.setTag(null);
+            }
+        }
+
+        @Override
+        public void run() {
+            if (cancelled) {
+                return;
+            }
+            final Bitmap bitmap = fetchBitmap(this);
+            if (bitmap != null) {
+                memoryCache.put(url, bitmap);
+            }
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    // The view may show another article by now
+                    if (!cancelled && imageView.getTag() == Request.this) {
+                        // On failure the view is left blank, but no longer taken for loading,
+                        // so the thumbnail is tried again the next time the row is bound
+                        if (bitmap != null) {
+                            imageView.setImageBitmap(bitmap);
+                        }
+                        imageView.setTag(null);
+                    }
+                }
+            });
+        }
+    }
+}
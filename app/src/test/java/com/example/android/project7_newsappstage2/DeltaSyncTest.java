@@ -0,0 +1,87 @@
+package com.example.android.project7_newsappstage2;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Merges the articles downloaded by a {@link DeltaSync} refresh into the cached page.
+ */
+public class DeltaSyncTest {
+
+    private static final long MINUTE = 60 * 1000;
+
+    private static final long NOW = GuardianDateCodec.parse("2018-08-20T10:15:00Z");
+
+    @Test
+    public void watermarkRoundTrips() {
+        assertEquals("2018-08-20T10:15:00Z", GuardianDateCodec.formatRaw(NOW));
+        assertEquals("2016-02-29T23:59:59Z",
+                GuardianDateCodec.formatRaw(GuardianDateCodec.parse("2016-02-29T23:59:59Z") + 999));
+        assertEquals("1970-01-01T00:00:00Z", GuardianDateCodec.formatRaw(0));
+    }
+
+    @Test
+    public void watermarkIsTheNewestArticleOfTheSection() {
+        List<News> cached = Arrays.asList(news("world", "a", 3), news("sport", "b", 1), news("world", "c", 5));
+        assertEquals(NOW - 3 * MINUTE, DeltaSync.getWatermark(cached, "world"));
+        assertEquals(GuardianDateCodec.INVALID, DeltaSync.getWatermark(cached, "music"));
+    }
+
+    @Test
+    public void newArticlesGoOnTopAndThePageKeepsItsSize() {
+        List<News> cached = Arrays.asList(news("world", "a", 10), news("world", "b", 20), news("world", "c", 30));
+        // The newest cached article comes back, as the API counts the watermark second in
+        List<News> newer = Arrays.asList(news("world", "d", 1), news("world", "a", 10));
+
+        List<News> page = DeltaSync.merge(cached, newer, pageSizes("world", 3), 3);
+        assertEquals(Arrays.asList("d", "a", "b"), urls(page));
+    }
+
+    @Test
+    public void nothingNewKeepsTheCachedPage() {
+        List<News> cached = Arrays.asList(news("world", "a", 10), news("world", "b", 20));
+        List<News> page = DeltaSync.merge(cached, Collections.<News>emptyList(), pageSizes("world", 2), 2);
+        assertEquals(Arrays.asList("a", "b"), urls(page));
+    }
+
+    @Test
+    public void aFullPageOfNewArticlesReplacesTheSection() {
+        // A combined feed: every world article came out since the last refresh
+        List<News> cached = Arrays.asList(news("world", "a", 30), news("sport", "b", 35),
+                news("world", "c", 40), news("sport", "d", 45));
+        List<News> newer = Arrays.asList(news("world", "e", 1), news("sport", "f", 2), news("world", "g", 3));
+
+        Map<String, Integer> sectionPageSizes = pageSizes("world", 2);
+        sectionPageSizes.put("sport", 2);
+        List<News> page = DeltaSync.merge(cached, newer, sectionPageSizes, 4);
+        // More world articles may be missing before a and c, so they are gone; sport is complete
+        assertEquals(Arrays.asList("e", "f", "g", "b"), urls(page));
+    }
+
+    //An article of the section published some minutes before now, its url is the id
+    private static News news(String sectionId, String id, int minutesAgo) {
+        return new News(sectionId, sectionId, "Title " + id, null, id, NOW - minutesAgo * MINUTE, null);
+    }
+
+    private static Map<String, Integer> pageSizes(String sectionId, int pageSize) {
+        Map<String, Integer> pageSizes = new HashMap<>();
+        pageSizes.put(sectionId, pageSize);
+        return pageSizes;
+    }
+
+    private static List<String> urls(List<News> news) {
+        List<String> urls = new ArrayList<>();
+        for (News item : news) {
+            urls.add(item.getArticleUrl());
+        }
+        return urls;
+    }
+}
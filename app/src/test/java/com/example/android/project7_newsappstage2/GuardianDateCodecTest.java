@@ -0,0 +1,69 @@
+package com.example.android.project7_newsappstage2;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Locale;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+/**
+ * Parses the dates of the Guardian API and formats them for display with {@link GuardianDateCodec}.
+ */
+public class GuardianDateCodecTest {
+
+    private Locale defaultLocale;
+
+    private TimeZone defaultTimeZone;
+
+    @Before
+    public void saveDefaults() {
+        defaultLocale = Locale.getDefault();
+        defaultTimeZone = TimeZone.getDefault();
+    }
+
+    @After
+    public void restoreDefaults() {
+        Locale.setDefault(defaultLocale);
+        TimeZone.setDefault(defaultTimeZone);
+    }
+
+    @Test
+    public void daysPastTheEndOfTheMonthAreRejected() {
+        assertEquals(GuardianDateCodec.INVALID, GuardianDateCodec.parse("2018-02-31T10:15:00Z"));
+        assertEquals(GuardianDateCodec.INVALID, GuardianDateCodec.parse("2018-02-29T10:15:00Z"));
+        assertEquals(GuardianDateCodec.INVALID, GuardianDateCodec.parse("2018-04-31T10:15:00Z"));
+        assertEquals(GuardianDateCodec.INVALID, GuardianDateCodec.parse("1900-02-29T10:15:00Z"));
+        assertEquals(GuardianDateCodec.INVALID, GuardianDateCodec.parse("2018-08-32T10:15:00Z"));
+    }
+
+    @Test
+    public void lastDaysOfTheMonthAreAccepted() {
+        assertEquals("2016-02-29T10:15:00Z",
+                GuardianDateCodec.formatRaw(GuardianDateCodec.parse("2016-02-29T10:15:00Z")));
+        assertEquals("2000-02-29T10:15:00Z",
+                GuardianDateCodec.formatRaw(GuardianDateCodec.parse("2000-02-29T10:15:00Z")));
+        assertEquals("2018-04-30T10:15:00Z",
+                GuardianDateCodec.formatRaw(GuardianDateCodec.parse("2018-04-30T10:15:00Z")));
+        assertEquals("2018-12-31T10:15:00Z",
+                GuardianDateCodec.formatRaw(GuardianDateCodec.parse("2018-12-31T10:15:00Z")));
+    }
+
+    @Test
+    public void displayFollowsTheDefaultTimeZoneAndLocale() {
+        long millis = GuardianDateCodec.parse("2018-08-20T10:15:00Z");
+        Locale.setDefault(Locale.US);
+        TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+        assertEquals("Aug 20, 2018 / 10:15", GuardianDateCodec.format(millis));
+
+        TimeZone.setDefault(TimeZone.getTimeZone("GMT+02:00"));
+        assertEquals("Aug 20, 2018 / 12:15", GuardianDateCodec.format(millis));
+
+        // The month is abbreviated as in German, "Aug." rather than "Aug"
+        Locale.setDefault(Locale.GERMANY);
+        assertNotEquals("Aug 20, 2018 / 12:15", GuardianDateCodec.format(millis));
+        assertTrue(GuardianDateCodec.format(millis).endsWith(" 20, 2018 / 12:15"));
+    }
+}
@@ -0,0 +1,321 @@
+package com.example.android.project7_newsappstage2;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A small JMH-style harness for the benchmarks of the JVM unit tests.
+ * <p>
+ * Every benchmark is warmed up first, then timed over a few fixed length iterations. The
+ * operation is called in batches long enough for {@link System#nanoTime()} to be accurate, its
+ * results are stored in a field so the JIT can not drop the calls, and the bytes allocated by
+ * the thread are read from the JVM. Results are written as JSON in a stable order, so the files
+ * of two commits can be diffed.
+ */
+final class MicroBenchmark {
+
+    /**
+     * Set to true to run the benchmarks, see the testOptions of the app build.gradle
+     */
+    static final String ENABLED_PROPERTY = "benchmark.enabled";
+
+    /**
+     * Directory the results are written to
+     */
+    static final String OUTPUT_PROPERTY = "benchmark.output";
+
+    /**
+     * Shortest batch, anything shorter is mostly the cost of reading the clock
+     */
+    private static final long MIN_BATCH_NANOS = 100000;
+
+    /**
+     * The operation being measured, its result is consumed by the harness.
+     */
+    interface Operation {
+        Object run() throws Exception;
+    }
+
+    /**
+     * What one benchmark measured.
+     */
+    static final class Result {
+
+        final String name;
+
+        /**
+         * The size of the input, such as the number of results in the response
+         */
+        final int size;
+
+        /**
+         * The number of bytes of the input, such as the length of the response, -1 if not given
+         */
+        final long inputBytes;
+
+        final long operations;
+
+        final double opsPerSecond;
+
+        /**
+         * Standard deviation of the throughput across the measurement iterations
+         */
+        final double opsPerSecondError;
+
+        final double nanosPerOp;
+
+        final double p50NanosPerOp;
+
+        final double p99NanosPerOp;
+
+        /**
+         * -1 if the JVM can not count allocations
+         */
+        final double bytesPerOp;
+
+        final double allocatedMegabytesPerSecond;
+
+        Result(String name, int size, long inputBytes, long operations, double opsPerSecond,
+               double opsPerSecondError, double nanosPerOp, double p50NanosPerOp, double p99NanosPerOp,
+               double bytesPerOp, double allocatedMegabytesPerSecond) {
+            this.name = name;
+            this.size = size;
+            this.inputBytes = inputBytes;
+            this.operations = operations;
+            this.opsPerSecond = opsPerSecond;
+            this.opsPerSecondError = opsPerSecondError;
+            this.nanosPerOp = nanosPerOp;
+            this.p50NanosPerOp = p50NanosPerOp;
+            this.p99NanosPerOp = p99NanosPerOp;
+            this.bytesPerOp = bytesPerOp;
+            this.allocatedMegabytesPerSecond = allocatedMegabytesPerSecond;
+        }
+    }
+
+    //Nanoseconds per call of every batch
+    private static final class Samples {
+
+        final double[] values;
+
+        int size;
+
+        Samples(int capacity) {
+            values = new double[capacity];
+        }
+    }
+
+    private final int warmupIterations;
+
+    private final int measurementIterations;
+
+    private final long iterationNanos;
+
+    private final List<Result> results = new ArrayList<>();
+
+    /**
+     * Gets the result of every call, so the JIT can not leave the work out
+     */
+    private Object sink;
+
+    MicroBenchmark(int warmupIterations, int measurementIterations, long iterationMillis) {
+        this.warmupIterations = warmupIterations;
+        this.measurementIterations = measurementIterations;
+        iterationNanos = iterationMillis * 1000000;
+    }
+
+    /**
+     * Returns true if the benchmarks were asked for, they are too slow for every test run.
+     */
+    static boolean isEnabled() {
+        return Boolean.getBoolean(ENABLED_PROPERTY);
+    }
+
+    /**
+     * Measure an operation and keep its result for {@link #write(File)}.
+     */
+    Result run(String name, int size, Operation operation) throws Exception {
+        return run(name, size, -1, operation);
+    }
+
+    /**
+     * Measure an operation on an input of a known number of bytes and keep its result for
+     * {@link #write(File)}.
+     */
+    Result run(String name, int size, long inputBytes, Operation operation) throws Exception {
+        int batch = calibrate(operation);
+        for (int i = 0; i < warmupIterations; i++) {
+            iterate(operation, batch, null);
+        }
+
+        // Allocated up front, so the harness itself allocates nothing while measuring.
+        // Batches last about MIN_BATCH_NANOS at least, any that do not fit are not sampled.
+        Samples samples = new Samples((int) (2 * measurementIterations * iterationNanos / MIN_BATCH_NANOS) + 16);
+        double[] throughputs = new double[measurementIterations];
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long startBytes = allocatedBytes(threads);
+        long start = System.nanoTime();
+
+        long operations = 0;
+        for (int i = 0; i < measurementIterations; i++) {
+            long iterationStart = System.nanoTime();
+            long iterationOperations = iterate(operation, batch, samples);
+            throughputs[i] = iterationOperations * 1e9 / (System.nanoTime() - iterationStart);
+            operations += iterationOperations;
+        }
+
+        long elapsed = System.nanoTime() - start;
+        long endBytes = allocatedBytes(threads);
+
+        double[] sorted = Arrays.copyOf(samples.values, samples.size);
+        Arrays.sort(sorted);
+
+        double bytesPerOp = -1;
+        double megabytesPerSecond = -1;
+        if (startBytes >= 0 && endBytes >= 0) {
+            bytesPerOp = (double) (endBytes - startBytes) / operations;
+            megabytesPerSecond = (endBytes - startBytes) / (elapsed / 1e9) / (1024 * 1024);
+        }
+
+        Result result = new Result(name, size, inputBytes, operations, operations * 1e9 / elapsed,
+                standardDeviation(throughputs), (double) elapsed / operations,
+                percentile(sorted, 0.5), percentile(sorted, 0.99), bytesPerOp, megabytesPerSecond);
+        results.add(result);
+        System.out.println(String.format(Locale.ROOT,
+                "%-24s %6d  %12.1f ops/s  %12.1f ns/op  p99 %12.1f ns/op  %12.1f B/op",
+                name, size, result.opsPerSecond, result.nanosPerOp, result.p99NanosPerOp, bytesPerOp));
+        return result;
+    }
+
+    /**
+     * Keep a measurement taken outside the harness, such as the heap a list keeps alive, for
+     * {@link #write(File)}. Only its bytes per operation are known.
+     */
+    Result record(String name, int size, double bytesPerOp) {
+        Result result = new Result(name, size, -1, 0, -1, -1, -1, -1, -1, bytesPerOp, -1);
+        results.add(result);
+        return result;
+    }
+
+    /**
+     * Write every result as JSON, one object per benchmark in the order they ran.
+     */
+    void write(File file) throws IOException {
+        File directory = file.getParentFile();
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can not create " + directory);
+        }
+
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"jvm\": ").append(quote(System.getProperty("java.vm.name") + " "
+                + System.getProperty("java.version"))).append(",\n");
+        json.append("  \"os\": ").append(quote(System.getProperty("os.name") + " "
+                + System.getProperty("os.arch"))).append(",\n");
+        json.append(String.format(Locale.ROOT,
+                "  \"warmupIterations\": %d,\n  \"measurementIterations\": %d,\n  \"iterationMillis\": %d,\n",
+                warmupIterations, measurementIterations, iterationNanos / 1000000));
+        json.append("  \"benchmarks\": [");
+        for (int i = 0; i < results.size(); i++) {
+            Result result = results.get(i);
+            json.append(i == 0 ? "\n" : ",\n");
+            json.append("    {\"name\": ").append(quote(result.name))
+                    .append(", \"size\": ").append(result.size)
+                    .append(", \"inputBytes\": ").append(result.inputBytes)
+                    .append(String.format(Locale.ROOT,
+                            ", \"operations\": %d, \"opsPerSecond\": %.1f, \"opsPerSecondError\": %.1f"
+                                    + ", \"nanosPerOp\": %.1f, \"p50NanosPerOp\": %.1f, \"p99NanosPerOp\": %.1f"
+                                    + ", \"bytesPerOp\": %.1f, \"allocatedMegabytesPerSecond\": %.1f}",
+                            result.operations, result.opsPerSecond, result.opsPerSecondError,
+                            result.nanosPerOp, result.p50NanosPerOp, result.p99NanosPerOp,
+                            result.bytesPerOp, result.allocatedMegabytesPerSecond));
+        }
+        json.append("\n  ]\n}\n");
+
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), Charset.forName("UTF-8"));
+        try {
+            writer.write(json.toString());
+        } finally {
+            writer.close();
+        }
+        System.out.println("Benchmark results written to " + file.getAbsolutePath());
+    }
+
+    //Number of calls per batch, so a batch lasts at least MIN_BATCH_NANOS
+    private int calibrate(Operation operation) throws Exception {
+        int batch = 1;
+        while (true) {
+            long start = System.nanoTime();
+            for (int i = 0; i < batch; i++) {
+                sink = operation.run();
+            }
+            if (System.nanoTime() - start >= MIN_BATCH_NANOS || batch >= 1 << 20) {
+                return batch;
+            }
+            batch *= 2;
+        }
+    }
+
+    //Run batches for one iteration and return the number of calls, samples gets the ns per call of every batch
+    private long iterate(Operation operation, int batch, Samples samples) throws Exception {
+        long start = System.nanoTime();
+        long end = start + iterationNanos;
+        long operations = 0;
+        long batchStart = start;
+        while (batchStart < end) {
+            for (int i = 0; i < batch; i++) {
+                sink = operation.run();
+            }
+            long batchEnd = System.nanoTime();
+            if (samples != null && samples.size < samples.values.length) {
+                samples.values[samples.size++] = (double) (batchEnd - batchStart) / batch;
+            }
+            operations += batch;
+            batchStart = batchEnd;
+        }
+        return operations;
+    }
+
+    //Bytes allocated by this thread so far, -1 if the JVM does not tell
+    private static long allocatedBytes(ThreadMXBean threads) {
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private static double percentile(double[] sorted, double fraction) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(fraction * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    private static double standardDeviation(double[] values) {
+        double mean = 0;
+        for (double value : values) {
+            mean += value / values.length;
+        }
+        double variance = 0;
+        for (double value : values) {
+            variance += (value - mean) * (value - mean) / values.length;
+        }
+        return Math.sqrt(variance);
+    }
+
+    private static String quote(String text) {
+        return "\"" + text.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+}
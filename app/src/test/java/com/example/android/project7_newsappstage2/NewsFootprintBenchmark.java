@@ -0,0 +1,188 @@
+package com.example.android.project7_newsappstage2;
+
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+/**
+ * Measures the heap a list of articles keeps alive, in bytes per article, for the way news were
+ * held before (a {@link News} per article, every string its own copy) and the way they are held
+ * now (shared section and author strings).
+ * <p>
+ * Like the other benchmarks it only runs with {@code ./gradlew testDebugUnitTest -Pbenchmark},
+ * and writes its results to app/build/benchmarks/NewsFootprintBenchmark.json.
+ */
+public class NewsFootprintBenchmark {
+
+    /**
+     * Enough articles for the fixed costs of the lists to disappear
+     */
+    private static final int ARTICLES = 20000;
+
+    private static final int REPETITIONS = 5;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Keeps the bytes per article of every measurement, in the order they ran
+     */
+    private static MicroBenchmark benchmark;
+
+    /**
+     * Parsed once, every measurement copies what it needs from them
+     */
+    private static List<News> parsed;
+
+    /**
+     * The articles of the measurement running, so they stay reachable while the heap is read
+     */
+    private static Object retained;
+
+    /**
+     * How an article was held before: every field its own object, nothing shared.
+     */
+    private static final class LegacyNews {
+
+        private final String mSectionId;
+        private String mArticleCategory;
+        private String mArticleTitle;
+        private String mArticleAuthor;
+        private final String mArticleUrl;
+        private final long mPublicationTime;
+        private final String mThumbnailUrl;
+        private String mArticleDate;
+
+        LegacyNews(String sectionId, String articleCategory, String articleTitle, String articleAuthor,
+                   String articleUrl, long publicationTime, String thumbnailUrl) {
+            mSectionId = sectionId;
+            mArticleCategory = articleCategory;
+            mArticleTitle = articleTitle;
+            mArticleAuthor = articleAuthor;
+            mArticleUrl = articleUrl;
+            mPublicationTime = publicationTime;
+            mThumbnailUrl = thumbnailUrl;
+        }
+    }
+
+    //Builds the articles of one measurement
+    private interface Builder {
+        Object build();
+    }
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        Assume.assumeTrue("Run with -Pbenchmark", MicroBenchmark.isEnabled());
+        // One build that is not measured, then the measured ones
+        benchmark = new MicroBenchmark(1, REPETITIONS, 0);
+        final List<News> recorded = new ArrayList<>();
+        byte[] fixture = QueryUtilsBenchmark.readFixture().getBytes(UTF_8);
+        NewsStreamParser.parse(new ByteArrayInputStream(fixture), new NewsStreamParser.OnNewsParsedListener() {
+            @Override
+            public void onNewsParsed(News news) {
+                recorded.add(news);
+            }
+        });
+        assertFalse(recorded.isEmpty());
+        // Every article with its own title and url, as in a real feed
+        parsed = new ArrayList<>(ARTICLES);
+        for (int i = 0; i < ARTICLES; i++) {
+            News news = recorded.get(i % recorded.size());
+            parsed.add(new News(news.getSectionId(), news.getArticleCategory(), news.getArticleTitle() + " " + i,
+                    news.getArticleAuthor(), news.getArticleUrl() + "-" + i, news.getPublicationTime() - i,
+                    news.getThumbnailUrl()));
+        }
+    }
+
+    @AfterClass
+    public static void writeResults() throws IOException {
+        if (benchmark == null) {
+            return;
+        }
+        String directory = System.getProperty(MicroBenchmark.OUTPUT_PROPERTY, "build/benchmarks");
+        benchmark.write(new File(directory, NewsFootprintBenchmark.class.getSimpleName() + ".json"));
+    }
+
+    /**
+     * Every string copied, as the parser used to create them, in an ArrayList
+     */
+    @Test
+    public void legacyNews() {
+        measure("LegacyNews ArrayList", new Builder() {
+            @Override
+            public Object build() {
+                List<LegacyNews> news = new ArrayList<>(ARTICLES);
+                for (News item : parsed) {
+                    news.add(new LegacyNews(copy(item.getSectionId()), copy(item.getArticleCategory()),
+                            copy(item.getArticleTitle()), copy(item.getArticleAuthor()),
+                            copy(item.getArticleUrl()), item.getPublicationTime(), copy(item.getThumbnailUrl())));
+                }
+                return news;
+            }
+        });
+    }
+
+    /**
+     * Shared section and author strings, what the app keeps now
+     */
+    @Test
+    public void internedNews() {
+        measure("News ArrayList", new Builder() {
+            @Override
+            public Object build() {
+                List<News> news = new ArrayList<>(ARTICLES);
+                for (News item : parsed) {
+                    news.add(new News(copy(item.getSectionId()), copy(item.getArticleCategory()),
+                            copy(item.getArticleTitle()), copy(item.getArticleAuthor()),
+                            copy(item.getArticleUrl()), item.getPublicationTime(), copy(item.getThumbnailUrl())));
+                }
+                return news;
+            }
+        });
+    }
+
+    //Keeps the median of a few measurements, as one of them is now and then off by a heap region.
+    //The first build is not measured, it loads and compiles classes on the way.
+    private static void measure(String name, Builder builder) {
+        retained = builder.build();
+        double[] measured = new double[REPETITIONS];
+        for (int i = 0; i < REPETITIONS; i++) {
+            retained = null;
+            long before = usedHeap();
+            retained = builder.build();
+            long after = usedHeap();
+            measured[i] = (double) (after - before) / ARTICLES;
+        }
+        retained = null;
+        Arrays.sort(measured);
+        double median = measured[REPETITIONS / 2];
+        benchmark.record(name, ARTICLES, median);
+        System.out.println(String.format(Locale.ROOT, "%-22s %8.1f bytes per article", name, median));
+    }
+
+    private static long usedHeap() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    //A string of its own, as a parser creates it. new String(String) would share the characters.
+    private static String copy(String value) {
+        return value != null ? new String(value.toCharArray()) : null;
+    }
+}
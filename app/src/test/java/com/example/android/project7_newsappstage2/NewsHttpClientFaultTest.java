@@ -0,0 +1,285 @@
+package com.example.android.project7_newsappstage2;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs {@link NewsHttpClient} against a local stand-in for the Guardian API that fails on demand.
+ */
+public class NewsHttpClientFaultTest {
+
+    //What the stand-in does with a request
+    private enum Fault {
+        NONE, SERVER_ERROR, UNAVAILABLE, NOT_FOUND, TRUNCATED_BODY, MALFORMED_BODY, UNEXPECTED_BODY
+    }
+
+    private HttpServer server;
+
+    private URL url;
+
+    private byte[] json;
+
+    /**
+     * Faults of the next requests, the stand-in answers normally once it is empty
+     */
+    private final Queue<Fault> faults = new LinkedList<>();
+
+    /**
+     * Fault of every request once the queue is empty
+     */
+    private Fault defaultFault = Fault.NONE;
+
+    private int requests;
+
+    @Before
+    public void startServer() throws IOException {
+        StringBuilder body = new StringBuilder("{\"response\":{\"status\":\"ok\",\"results\":[");
+        for (int i = 0; i < 20; i++) {
+            if (i > 0) {
+                body.append(',');
+            }
+            body.append("{\"sectionName\":\"World news\",\"webTitle\":\"Headline ").append(i)
+                    .append("\",\"webUrl\":\"https://www.theguardian.com/world/").append(i)
+                    .append("\",\"webPublicationDate\":\"2018-08-20T10:15:00Z\"}");
+        }
+        body.append("]}}");
+        json = body.toString().getBytes(Charset.forName("UTF-8"));
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/search", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                Fault fault;
+                synchronized (NewsHttpClientFaultTest.this) {
+                    requests++;
+                    fault = faults.isEmpty() ? defaultFault : faults.remove();
+                }
+                switch (fault) {
+                    case SERVER_ERROR:
+                        exchange.sendResponseHeaders(500, -1);
+                        exchange.close();
+                        return;
+                    case UNAVAILABLE:
+                        exchange.sendResponseHeaders(503, -1);
+                        exchange.close();
+                        return;
+                    case NOT_FOUND:
+                        exchange.sendResponseHeaders(404, -1);
+                        exchange.close();
+                        return;
+                    case TRUNCATED_BODY:
+                        // Announce the whole body but hang up half way through it
+                        exchange.sendResponseHeaders(200, json.length);
+                        exchange.getResponseBody().write(json, 0, json.length / 2);
+                        exchange.getResponseBody().flush();
+                        exchange.close();
+                        return;
+                    case MALFORMED_BODY:
+                        writeBody(exchange, "{\"response\":{\"status\" \"ok\"}}");
+                        return;
+                    case UNEXPECTED_BODY:
+                        // Valid JSON, but the results are not articles
+                        writeBody(exchange, "{\"response\":{\"status\":\"ok\",\"results\":[1]}}");
+                        return;
+                    default:
+                        exchange.getResponseHeaders().set("ETag", "\"v" + requests + "\"");
+                        exchange.sendResponseHeaders(200, json.length);
+                        OutputStream outputStream = exchange.getResponseBody();
+                        outputStream.write(json);
+                        outputStream.close();
+                }
+            }
+        });
+        server.start();
+        url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/search?page-size=20");
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void unavailableIsRetried() {
+        faults.add(Fault.UNAVAILABLE);
+        faults.add(Fault.UNAVAILABLE);
+
+        NewsHttpClient.Result<List<News>> result = newClient().get(url, newsParser());
+
+        assertEquals(200, result.responseCode);
+        assertEquals(20, result.value.size());
+        assertEquals(3, result.attempts);
+        assertEquals(3, requests);
+    }
+
+    @Test
+    public void truncatedBodyIsRetried() {
+        faults.add(Fault.TRUNCATED_BODY);
+
+        NewsHttpClient.Result<List<News>> result = newClient().get(url, newsParser());
+
+        assertEquals(20, result.value.size());
+        assertEquals(2, result.attempts);
+    }
+
+    @Test
+    public void clientErrorIsNotRetried() {
+        faults.add(Fault.NOT_FOUND);
+
+        NewsHttpClient.Result<List<News>> result = newClient().get(url, newsParser());
+
+        assertNull(result.value);
+        assertEquals(404, result.responseCode);
+        assertEquals(1, result.attempts);
+    }
+
+    @Test
+    public void malformedBodyIsNotRetried() {
+        faults.add(Fault.MALFORMED_BODY);
+
+        NewsHttpClient.Result<List<News>> result = newClient().get(url, newsParser());
+
+        assertNull(result.value);
+        assertEquals(200, result.responseCode);
+        assertEquals(1, result.attempts);
+        assertEquals(1, requests);
+    }
+
+    @Test
+    public void unexpectedBodyIsNotRetried() {
+        faults.add(Fault.UNEXPECTED_BODY);
+
+        NewsHttpClient.Result<List<News>> result = newClient().get(url, newsParser());
+
+        assertNull(result.value);
+        assertEquals(1, result.attempts);
+        assertEquals(1, requests);
+    }
+
+    @Test
+    public void openCircuitServesLastValueWithoutRequests() {
+        NewsHttpClient client = newClient();
+        List<News> cached = client.get(url, newsParser()).value;
+        assertNotNull(cached);
+
+        defaultFault = Fault.SERVER_ERROR;
+        for (int i = 0; i < 3; i++) {
+            assertNull(client.get(url, newsParser()).value);
+        }
+        int requestsBeforeOpen = requests;
+        assertEquals(1 + 3 * 3, requestsBeforeOpen);
+
+        NewsHttpClient.Result<List<News>> result = client.get(url, newsParser());
+        assertTrue(result.isCircuitOpen());
+        assertEquals(0, result.attempts);
+        assertSame(cached, result.value);
+        assertEquals(requestsBeforeOpen, requests);
+    }
+
+    @Test
+    public void circuitClosesAfterSuccessfulTrial() throws InterruptedException {
+        NewsHttpClient client = new NewsHttpClient(1, 1, 100);
+        defaultFault = Fault.SERVER_ERROR;
+        for (int i = 0; i < 3; i++) {
+            client.get(url, newsParser());
+        }
+        assertTrue(client.get(url, newsParser()).isCircuitOpen());
+
+        Thread.sleep(150);
+        defaultFault = Fault.NONE;
+        assertEquals(200, client.get(url, newsParser()).responseCode);
+        assertFalse(client.get(url, newsParser()).isCircuitOpen());
+    }
+
+    @Test
+    public void cancellationStopsRetries() throws InterruptedException {
+        defaultFault = Fault.UNAVAILABLE;
+        final CancellationToken cancellation = new CancellationToken();
+        final List<NewsHttpClient.Result<List<News>>> results = new ArrayList<>();
+        // Long back offs, the load engine wakes the thread up with an interrupt
+        Thread fetch = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                results.add(new NewsHttpClient(3, 5000, 60000).get(url, newsParser(), cancellation));
+            }
+        });
+        fetch.start();
+        while (requests() == 0) {
+            Thread.sleep(5);
+        }
+
+        long start = System.nanoTime();
+        cancellation.cancel();
+        fetch.interrupt();
+        fetch.join(5000);
+
+        assertTrue(System.nanoTime() - start < 1000 * 1000000L);
+        NewsHttpClient.Result<List<News>> result = results.get(0);
+        assertNull(result.value);
+        assertEquals(requests(), result.attempts);
+    }
+
+    @Test
+    public void timeoutsFollowLatencies() {
+        NewsHttpClient client = newClient();
+        int initialTimeout = client.getReadTimeout(1);
+        for (int i = 0; i < 10; i++) {
+            assertNotNull(client.get(url, newsParser()).value);
+        }
+
+        // A local server answers in a few milliseconds, so the timeouts drop to their minimum
+        assertTrue(client.getReadTimeout(1) < initialTimeout);
+        assertEquals(2 * client.getReadTimeout(1), client.getReadTimeout(2));
+    }
+
+    private synchronized int requests() {
+        return requests;
+    }
+
+    private static void writeBody(HttpExchange exchange, String body) throws IOException {
+        byte[] bytes = body.getBytes(Charset.forName("UTF-8"));
+        exchange.sendResponseHeaders(200, bytes.length);
+        OutputStream outputStream = exchange.getResponseBody();
+        outputStream.write(bytes);
+        outputStream.close();
+    }
+
+    //Short back offs, so the retries do not slow the tests down
+    private static NewsHttpClient newClient() {
+        return new NewsHttpClient(3, 10, 60000);
+    }
+
+    private static NewsHttpClient.ResponseParser<List<News>> newsParser() {
+        return new NewsHttpClient.ResponseParser<List<News>>() {
+            @Override
+            public List<News> parse(InputStream body, long contentLength) throws IOException {
+                final List<News> news = new ArrayList<>();
+                NewsStreamParser.parse(body, new NewsStreamParser.OnNewsParsedListener() {
+                    @Override
+                    public void onNewsParsed(News newsItem) {
+                        news.add(newsItem);
+                    }
+                });
+                return news;
+            }
+        };
+    }
+}
@@ -0,0 +1,175 @@
+package com.example.android.project7_newsappstage2;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs {@link NewsHttpClient} against a local stand-in for the Guardian API.
+ */
+public class NewsHttpClientTest {
+
+    private static final String E_TAG = "\"v1\"";
+
+    private HttpServer server;
+
+    private URL url;
+
+    private byte[] json;
+
+    private int requests;
+
+    private final Set<Integer> clientPorts = new HashSet<>();
+
+    @Before
+    public void startServer() throws IOException {
+        StringBuilder body = new StringBuilder("{\"response\":{\"status\":\"ok\",\"results\":[");
+        for (int i = 0; i < 50; i++) {
+            if (i > 0) {
+                body.append(',');
+            }
+            body.append("{\"sectionName\":\"World news\",\"webTitle\":\"Headline ").append(i)
+                    .append("\",\"webUrl\":\"https://www.theguardian.com/world/").append(i)
+                    .append("\",\"webPublicationDate\":\"2018-08-20T10:15:00Z\",\"tags\":[")
+                    .append("{\"firstName\":\"Jane\",\"lastName\":\"Doe\"}]}");
+        }
+        body.append("]}}");
+        json = body.toString().getBytes(Charset.forName("UTF-8"));
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/search", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                synchronized (NewsHttpClientTest.this) {
+                    requests++;
+                    clientPorts.add(exchange.getRemoteAddress().getPort());
+                }
+                exchange.getResponseHeaders().set("ETag", E_TAG);
+                if (E_TAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    exchange.sendResponseHeaders(304, -1);
+                    exchange.close();
+                    return;
+                }
+
+                byte[] responseBody = json;
+                if ("gzip".equals(exchange.getRequestHeaders().getFirst("Accept-Encoding"))) {
+                    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                    GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+                    gzip.write(json);
+                    gzip.close();
+                    responseBody = compressed.toByteArray();
+                    exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                }
+                exchange.sendResponseHeaders(200, responseBody.length);
+                OutputStream outputStream = exchange.getResponseBody();
+                outputStream.write(responseBody);
+                outputStream.close();
+            }
+        });
+        server.start();
+        url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/search?page-size=50");
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void gzipBodyIsDecompressedAndParsed() {
+        NewsHttpClient.Result<List<News>> result = new NewsHttpClient().get(url, newsParser());
+
+        assertEquals(200, result.responseCode);
+        assertEquals(50, result.value.size());
+        assertEquals("Jane Doe", result.value.get(7).getArticleAuthor());
+        assertTrue("compressed body should be smaller than the JSON", result.bytesReceived < json.length);
+    }
+
+    @Test
+    public void notModifiedReturnsPreviousResult() {
+        NewsHttpClient client = new NewsHttpClient();
+        NewsHttpClient.Result<List<News>> first = client.get(url, newsParser());
+        NewsHttpClient.Result<List<News>> second = client.get(url, newsParser());
+
+        assertFalse(first.isNotModified());
+        assertTrue(second.isNotModified());
+        assertSame(first.value, second.value);
+        assertEquals(0, second.bytesReceived);
+        assertTrue(first.bytesReceived > 0);
+    }
+
+    @Test
+    public void connectionIsKeptAlive() throws IOException {
+        // Different pages, so every request gets a full 200 response. The stand-in server
+        // always closes the connection after a 304.
+        NewsHttpClient client = new NewsHttpClient();
+        for (int i = 1; i <= 3; i++) {
+            assertNotNull(client.get(new URL(url + "&page=" + i), newsParser()).value);
+        }
+
+        assertEquals(3, requests);
+        assertEquals(1, clientPorts.size());
+    }
+
+    @Test
+    public void slowBodiesDoNotStretchTheConnectTimeout() throws IOException {
+        // Enough fetches for the timeouts to follow the latencies, each a while in the parser
+        NewsHttpClient client = new NewsHttpClient();
+        for (int i = 1; i <= 8; i++) {
+            assertNotNull(client.get(new URL(url + "&page=" + i), slowParser(550)).value);
+        }
+
+        // Connecting to and hearing from the local server is quick, whatever the body takes
+        assertEquals(1000, client.getConnectTimeout(1));
+        assertEquals(2000, client.getReadTimeout(1));
+    }
+
+    private static NewsHttpClient.ResponseParser<List<News>> slowParser(final long millis) {
+        return new NewsHttpClient.ResponseParser<List<News>>() {
+            @Override
+            public List<News> parse(InputStream body, long contentLength) throws IOException {
+                try {
+                    Thread.sleep(millis);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return newsParser().parse(body, contentLength);
+            }
+        };
+    }
+
+    private static NewsHttpClient.ResponseParser<List<News>> newsParser() {
+        return new NewsHttpClient.ResponseParser<List<News>>() {
+            @Override
+            public List<News> parse(InputStream body, long contentLength) throws IOException {
+                final List<News> news = new ArrayList<>();
+                NewsStreamParser.parse(body, new NewsStreamParser.OnNewsParsedListener() {
+                    @Override
+                    public void onNewsParsed(News newsItem) {
+                        news.add(newsItem);
+                    }
+                });
+                return news;
+            }
+        };
+    }
+}
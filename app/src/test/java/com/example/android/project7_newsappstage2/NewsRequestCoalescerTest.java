@@ -0,0 +1,165 @@
+package com.example.android.project7_newsappstage2;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs {@link NewsRequestCoalescer} against a slow local stand-in for the Guardian API.
+ */
+public class NewsRequestCoalescerTest {
+
+    private static final int RESULTS = 20;
+
+    private static final int CALLERS = 4;
+
+    private HttpServer server;
+
+    private String url;
+
+    private final AtomicInteger requests = new AtomicInteger();
+
+    @Before
+    public void startServer() throws IOException {
+        StringBuilder body = new StringBuilder("{\"response\":{\"status\":\"ok\",\"results\":[");
+        for (int i = 0; i < RESULTS; i++) {
+            if (i > 0) {
+                body.append(',');
+            }
+            body.append("{\"sectionName\":\"World news\",\"webTitle\":\"Headline ").append(i)
+                    .append("\",\"webUrl\":\"https://www.theguardian.com/world/").append(i)
+                    .append("\",\"webPublicationDate\":\"2018-08-20T10:15:00Z\"}");
+        }
+        body.append("]}}");
+        final byte[] json = body.toString().getBytes(Charset.forName("UTF-8"));
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/search", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                requests.incrementAndGet();
+                try {
+                    // Slow enough for every caller to ask while the first fetch is running
+                    Thread.sleep(300);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                exchange.sendResponseHeaders(200, json.length);
+                OutputStream outputStream = exchange.getResponseBody();
+                outputStream.write(json);
+                outputStream.close();
+            }
+        });
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/search?page-size=" + RESULTS;
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void concurrentCallersShareOneFetch() throws Exception {
+        final NewsRequestCoalescer coalescer = new NewsRequestCoalescer(0);
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService callers = Executors.newFixedThreadPool(CALLERS);
+        List<Future<List<News>>> results = new ArrayList<>();
+        final List<List<News>> streamed = new ArrayList<>();
+
+        for (int i = 0; i < CALLERS; i++) {
+            final List<News> callerNews = new ArrayList<>();
+            streamed.add(callerNews);
+            results.add(callers.submit(new Callable<List<News>>() {
+                @Override
+                public List<News> call() throws Exception {
+                    start.await();
+                    return coalescer.fetchNewsItemsData(url, new NewsStreamParser.OnNewsParsedListener() {
+                        @Override
+                        public void onNewsParsed(News news) {
+                            callerNews.add(news);
+                        }
+                    });
+                }
+            }));
+        }
+        start.countDown();
+
+        List<News> first = results.get(0).get();
+        assertNotNull(first);
+        for (int i = 0; i < CALLERS; i++) {
+            assertSame(first, results.get(i).get());
+            // Callers that joined late still get every news streamed to them
+            assertEquals(RESULTS, streamed.get(i).size());
+        }
+        assertEquals(1, requests.get());
+        callers.shutdown();
+    }
+
+    @Test
+    public void callerJoiningAFetchNobodyStreamsGetsEveryNews() throws Exception {
+        final NewsRequestCoalescer coalescer = new NewsRequestCoalescer(0);
+        ExecutorService callers = Executors.newSingleThreadExecutor();
+        Future<List<News>> first = callers.submit(new Callable<List<News>>() {
+            @Override
+            public List<News> call() {
+                return coalescer.fetchNewsItemsData(url, null);
+            }
+        });
+        // Join while the server is still holding the response back
+        Thread.sleep(100);
+        final List<News> streamed = new ArrayList<>();
+        List<News> second = coalescer.fetchNewsItemsData(url, new NewsStreamParser.OnNewsParsedListener() {
+            @Override
+            public void onNewsParsed(News news) {
+                streamed.add(news);
+            }
+        });
+
+        assertNotNull(second);
+        assertSame(first.get(), second);
+        assertEquals(RESULTS, streamed.size());
+        assertEquals(1, requests.get());
+        callers.shutdown();
+    }
+
+    @Test
+    public void repeatedRequestIsServedFromMemo() {
+        NewsRequestCoalescer coalescer = new NewsRequestCoalescer(60000);
+        List<News> first = coalescer.fetchNewsItemsData(url, null);
+        List<News> second = coalescer.fetchNewsItemsData(url, null);
+
+        assertNotNull(first);
+        assertSame(first, second);
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    public void expiredMemoFetchesAgain() {
+        NewsRequestCoalescer coalescer = new NewsRequestCoalescer(0);
+        assertNotNull(coalescer.fetchNewsItemsData(url, null));
+        assertNotNull(coalescer.fetchNewsItemsData(url, null));
+
+        assertEquals(2, requests.get());
+    }
+}
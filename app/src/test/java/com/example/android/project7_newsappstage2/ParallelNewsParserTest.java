@@ -0,0 +1,124 @@
+package com.example.android.project7_newsappstage2;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that {@link ParallelNewsParser} gives the same news as the streaming parser, in the
+ * same order, whatever the results hold.
+ */
+public class ParallelNewsParserTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static ForkJoinPool pool;
+
+    @BeforeClass
+    public static void startPool() {
+        // Four threads whatever the machine, so even the short bodies are split into chunks
+        pool = new ForkJoinPool(4);
+    }
+
+    @AfterClass
+    public static void stopPool() {
+        pool.shutdown();
+    }
+
+    @Test
+    public void parsesInOrder() throws IOException {
+        byte[] body = response(300, "");
+        List<News> news = ParallelNewsParser.parse(new ByteView(body, body.length), pool);
+        assertSameNews(streamParse(body), news);
+        assertEquals(300, news.size());
+    }
+
+    @Test
+    public void stringsMayHoldAnything() throws IOException {
+        // Quotes, brackets, keys and non-ASCII text inside strings must not be taken for JSON
+        byte[] body = response(40, " \\\"results\\\":[{]} \\\\ \u00abUn\u00efc\u00f6d\u00e9\u00bb \u2602");
+        assertSameNews(streamParse(body), ParallelNewsParser.parse(new ByteView(body, body.length), pool));
+    }
+
+    @Test
+    public void onlyTheResultsOfTheResponseAreItems() throws IOException {
+        String json = "{\"results\":[1],\"response\":{\"status\":\"ok\",\"edition\":{\"results\":[2]},"
+                + "\"results\":[" + item(0, "") + "," + item(1, "") + "],\"pages\":[3]}}";
+        byte[] body = json.getBytes(UTF_8);
+        List<News> news = ParallelNewsParser.parse(new ByteView(body, body.length), pool);
+        assertSameNews(streamParse(body), news);
+        assertEquals(2, news.size());
+    }
+
+    @Test
+    public void unexpectedLayoutIsLeftToTheStreamingParser() throws IOException {
+        assertNull(parse("{\"response\":{\"status\":\"error\"}}"));
+        assertNull(parse("{\"response\":{\"results\":[" + item(0, "") + ",null]}}"));
+        assertNull(parse("{\"response\":{\"results\":[" + item(0, "")));
+        assertEquals(0, parse("{\"response\":{\"results\":[]}}").size());
+    }
+
+    @Test(expected = IOException.class)
+    public void brokenItemFails() throws IOException {
+        parse("{\"response\":{\"results\":[" + item(0, "") + ",{\"webTitle\":}]}}");
+    }
+
+    private static List<News> parse(String json) throws IOException {
+        byte[] body = json.getBytes(UTF_8);
+        return ParallelNewsParser.parse(new ByteView(body, body.length), pool);
+    }
+
+    private static byte[] response(int size, String titleSuffix) {
+        StringBuilder json = new StringBuilder("{\"response\":{\"status\":\"ok\",\"results\":[");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                json.append(",\n ");
+            }
+            json.append(item(i, titleSuffix));
+        }
+        return json.append("]}}").toString().getBytes(UTF_8);
+    }
+
+    private static String item(int index, String titleSuffix) {
+        return "{\"sectionId\":\"world\",\"sectionName\":\"World news\",\"webTitle\":\"Headline " + index
+                + titleSuffix + "\",\"webUrl\":\"https://www.theguardian.com/world/" + index
+                + "\",\"webPublicationDate\":\"2018-08-20T10:15:00Z\",\"tags\":[{\"id\":[],"
+                + "\"firstName\":\"Jane\",\"lastName\":\"Doe\"}],\"fields\":{\"thumbnail\":"
+                + "\"https://media.guim.co.uk/" + index + ".jpg\",\"tags\":[{\"id\":[]}]}}";
+    }
+
+    private static List<News> streamParse(byte[] body) throws IOException {
+        final List<News> news = new ArrayList<>();
+        NewsStreamParser.parse(new ByteArrayInputStream(body), new NewsStreamParser.OnNewsParsedListener() {
+            @Override
+            public void onNewsParsed(News newsItem) {
+                news.add(newsItem);
+            }
+        });
+        return news;
+    }
+
+    private static void assertSameNews(List<News> expected, List<News> actual) {
+        assertNotNull(actual);
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            News expectedNews = expected.get(i);
+            News actualNews = actual.get(i);
+            assertEquals(expectedNews.getArticleTitle(), actualNews.getArticleTitle());
+            assertEquals(expectedNews.getArticleUrl(), actualNews.getArticleUrl());
+            assertEquals(expectedNews.getArticleAuthor(), actualNews.getArticleAuthor());
+            assertEquals(expectedNews.getThumbnailUrl(), actualNews.getThumbnailUrl());
+            assertEquals(expectedNews.getSectionId(), actualNews.getSectionId());
+            assertEquals(expectedNews.getPublicationTime(), actualNews.getPublicationTime());
+        }
+    }
+}
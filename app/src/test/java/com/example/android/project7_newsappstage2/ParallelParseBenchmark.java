@@ -0,0 +1,133 @@
+package com.example.android.project7_newsappstage2;
+
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+/**
+ * Benchmarks {@link ParallelNewsParser} against the streaming parser on bodies held in memory,
+ * from 10 to 2000 results of the projected query, to find the body length from which parsing
+ * on every core pays off. That crossover is what {@link ParallelNewsParser#MIN_BODY_BYTES} and
+ * {@link ParallelNewsParser#MIN_BODY_BYTES_FEW_CORES} are set from.
+ * <p>
+ * The pool has one thread per core of the machine, or as many as given with
+ * {@code -PbenchmarkParallelism=4}. With more threads than cores the threads take turns, so
+ * the parallel time on that many cores is worked out instead: the scan for the items runs on
+ * one thread, and the chunks, which are everything else, are split over the threads. That
+ * leaves out the memory bandwidth the cores share, so it is the best case.
+ * The allocations are only counted on the calling thread, so those of the pool threads are
+ * missing from the parallel results.
+ * <p>
+ * It only runs when asked for, with {@code ./gradlew testDebugUnitTest -Pbenchmark}, and
+ * writes its results to app/build/benchmarks/ParallelParseBenchmark.json.
+ */
+public class ParallelParseBenchmark {
+
+    private static final String PARALLELISM_PROPERTY = "benchmark.parallelism";
+
+    private static final int[] SIZES = {10, 25, 50, 100, 200, 500, 1000, 2000};
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static MicroBenchmark benchmark;
+
+    private static ForkJoinPool pool;
+
+    /**
+     * The body of every size
+     */
+    private static byte[][] bodies;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        Assume.assumeTrue("Run with -Pbenchmark", MicroBenchmark.isEnabled());
+        benchmark = new MicroBenchmark(5, 10, 200);
+        pool = new ForkJoinPool(Integer.getInteger(PARALLELISM_PROPERTY,
+                Runtime.getRuntime().availableProcessors()));
+        bodies = new byte[SIZES.length][];
+        for (int i = 0; i < SIZES.length; i++) {
+            bodies[i] = QueryUtilsBenchmark.buildResponse(SIZES[i]).getBytes(UTF_8);
+        }
+    }
+
+    @AfterClass
+    public static void writeResults() throws IOException {
+        if (benchmark == null) {
+            return;
+        }
+        pool.shutdown();
+        String directory = System.getProperty(MicroBenchmark.OUTPUT_PROPERTY, "build/benchmarks");
+        benchmark.write(new File(directory, ParallelParseBenchmark.class.getSimpleName() + ".json"));
+    }
+
+    /**
+     * Both parsers and the scan of the parallel one on every size. The crossover printed is the
+     * size from which the parallel one stays faster, so a single lucky size does not count.
+     */
+    @Test
+    public void crossover() throws Exception {
+        int threads = pool.getParallelism();
+        boolean modelled = threads > Runtime.getRuntime().availableProcessors();
+        int crossover = 0;
+        for (int i = 0; i < SIZES.length; i++) {
+            final byte[] body = bodies[i];
+            final ByteView view = new ByteView(body, body.length);
+            assertEquals(SIZES[i], ParallelNewsParser.parse(view, pool).size());
+
+            MicroBenchmark.Result sequential = benchmark.run("sequential", SIZES[i], body.length,
+                    new MicroBenchmark.Operation() {
+                        @Override
+                        public Object run() throws IOException {
+                            return NewsStreamParser.parse(new ByteArrayInputStream(body),
+                                    new NewsStreamParser.OnNewsParsedListener() {
+                                        @Override
+                                        public void onNewsParsed(News news) {
+                                        }
+                                    });
+                        }
+                    });
+            MicroBenchmark.Result parallel = benchmark.run("parallel", SIZES[i], body.length,
+                    new MicroBenchmark.Operation() {
+                        @Override
+                        public Object run() throws IOException {
+                            return ParallelNewsParser.parse(view, pool);
+                        }
+                    });
+            MicroBenchmark.Result scan = benchmark.run("scan", SIZES[i], body.length,
+                    new MicroBenchmark.Operation() {
+                        @Override
+                        public Object run() {
+                            return ParallelNewsParser.findItems(body, body.length);
+                        }
+                    });
+
+            double parallelNanos = parallel.p50NanosPerOp;
+            if (modelled) {
+                parallelNanos = scan.p50NanosPerOp + (parallel.p50NanosPerOp - scan.p50NanosPerOp) / threads;
+            }
+            System.out.println(String.format(Locale.ROOT, "%6d results  sequential %10.0f ns  parallel %10.0f ns%s",
+                    SIZES[i], sequential.p50NanosPerOp, parallelNanos, modelled ? " (worked out)" : ""));
+            if (parallelNanos >= sequential.p50NanosPerOp) {
+                crossover = i + 1;
+            }
+        }
+
+        String how = modelled ? " (worked out)" : "";
+        if (crossover == SIZES.length) {
+            System.out.println("No crossover on " + threads + " cores" + how);
+        } else {
+            System.out.println("Crossover on " + threads + " cores at " + SIZES[crossover] + " results, "
+                    + bodies[crossover].length + " bytes" + how);
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package com.example.android.project7_newsappstage2;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+/**
+ * Benchmarks the parsing and formatting helpers of {@link QueryUtils} on the JVM, against
+ * responses of 10, 200 and 2000 results built from a recorded Guardian response.
+ * <p>
+ * They only run when asked for, with {@code ./gradlew testDebugUnitTest -Pbenchmark}, and
+ * write their results to app/build/benchmarks/QueryUtilsBenchmark.json.
+ */
+public class QueryUtilsBenchmark {
+
+    /**
+     * A recorded response of the search endpoint, with contributor tags and thumbnails
+     */
+    private static final String FIXTURE = "/guardian_search.json";
+
+    private static final int[] SIZES = {10, 200, 2000};
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static MicroBenchmark benchmark;
+
+    /**
+     * The response of every size, as sent by the API
+     */
+    private static String[] responses;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        Assume.assumeTrue("Run with -Pbenchmark", MicroBenchmark.isEnabled());
+        benchmark = new MicroBenchmark(5, 10, 200);
+        responses = new String[SIZES.length];
+        for (int i = 0; i < SIZES.length; i++) {
+            responses[i] = buildResponse(SIZES[i]);
+        }
+    }
+
+    @AfterClass
+    public static void writeResults() throws IOException {
+        if (benchmark == null) {
+            return;
+        }
+        String directory = System.getProperty(MicroBenchmark.OUTPUT_PROPERTY, "build/benchmarks");
+        benchmark.write(new File(directory, QueryUtilsBenchmark.class.getSimpleName() + ".json"));
+    }
+
+    @Test
+    public void extractResultsFromJSON() throws Exception {
+        for (int i = 0; i < SIZES.length; i++) {
+            final String response = responses[i];
+            assertEquals(SIZES[i], QueryUtils.extractResultsFromJSON(response).size());
+            benchmark.run("extractResultsFromJSON", SIZES[i], new MicroBenchmark.Operation() {
+                @Override
+                public Object run() {
+                    return QueryUtils.extractResultsFromJSON(response);
+                }
+            });
+        }
+    }
+
+    @Test
+    public void readFromStream() throws Exception {
+        for (int i = 0; i < SIZES.length; i++) {
+            final byte[] body = responses[i].getBytes(UTF_8);
+            benchmark.run("readFromStream", SIZES[i], new MicroBenchmark.Operation() {
+                @Override
+                public Object run() throws IOException {
+                    return QueryUtils.readFromStream(new ByteArrayInputStream(body));
+                }
+            });
+        }
+    }
+
+    /**
+     * Reading a body of known length into a pooled array, the path of a fetch nobody streams
+     */
+    @Test
+    public void readBody() throws Exception {
+        for (int i = 0; i < SIZES.length; i++) {
+            final byte[] body = responses[i].getBytes(UTF_8);
+            benchmark.run("readBody", SIZES[i], new MicroBenchmark.Operation() {
+                @Override
+                public Object run() throws IOException {
+                    ByteView view = QueryUtils.readBody(new ByteArrayInputStream(body), body.length);
+                    view.release();
+                    return view;
+                }
+            });
+        }
+    }
+
+    /**
+     * The streaming parser the app really uses, for comparison with the buffered path
+     */
+    @Test
+    public void streamParse() throws Exception {
+        for (int i = 0; i < SIZES.length; i++) {
+            benchmarkStreamParse("NewsStreamParser.parse", SIZES[i], responses[i].getBytes(UTF_8));
+        }
+    }
+
+    private static void benchmarkStreamParse(String name, int size, final byte[] body) throws Exception {
+        benchmark.run(name, size, body.length, new MicroBenchmark.Operation() {
+            @Override
+            public Object run() throws IOException {
+                final int[] count = new int[1];
+                NewsStreamParser.parse(new ByteArrayInputStream(body), new NewsStreamParser.OnNewsParsedListener() {
+                    @Override
+                    public void onNewsParsed(News news) {
+                        count[0]++;
+                    }
+                });
+                return count;
+            }
+        });
+    }
+
+    /**
+     * Whole fetches from a local stand-in for the API through {@link NewsRequestCoalescer}, the
+     * way the app fetches. With a listener the news are streamed off the connection, without
+     * one the body is read into a pooled array first. The bytes allocated are those of the
+     * thread that fetches and parses, the server thread is not counted.
+     */
+    @Test
+    public void fetch() throws Exception {
+        final byte[][] bodies = new byte[SIZES.length][];
+        for (int i = 0; i < SIZES.length; i++) {
+            bodies[i] = responses[i].getBytes(UTF_8);
+        }
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/search", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String query = exchange.getRequestURI().getQuery();
+                byte[] body = bodies[Integer.parseInt(query.substring(query.indexOf('=') + 1))];
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream outputStream = exchange.getResponseBody();
+                outputStream.write(body);
+                outputStream.close();
+            }
+        });
+        server.start();
+        try {
+            final NewsRequestCoalescer coalescer = new NewsRequestCoalescer(0);
+            final NewsStreamParser.OnNewsParsedListener listener = new NewsStreamParser.OnNewsParsedListener() {
+                @Override
+                public void onNewsParsed(News news) {
+                }
+            };
+            for (int i = 0; i < SIZES.length; i++) {
+                final String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/search?size=" + i;
+                assertEquals(SIZES[i], coalescer.fetchNewsItemsData(url, null).size());
+                benchmark.run("fetch streamed", SIZES[i], bodies[i].length, new MicroBenchmark.Operation() {
+                    @Override
+                    public Object run() {
+                        return coalescer.fetchNewsItemsData(url, listener);
+                    }
+                });
+                benchmark.run("fetch buffered", SIZES[i], bodies[i].length, new MicroBenchmark.Operation() {
+                    @Override
+                    public Object run() {
+                        return coalescer.fetchNewsItemsData(url, null);
+                    }
+                });
+            }
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    /**
+     * Formats the date of every result of a response, each one once
+     */
+    @Test
+    public void getFormattedDate() throws Exception {
+        for (int i = 0; i < SIZES.length; i++) {
+            final String[] dates = buildDates(SIZES[i]);
+            benchmark.run("getFormattedDate", SIZES[i], new MicroBenchmark.Operation() {
+                @Override
+                public Object run() {
+                    String date = null;
+                    for (String rawDate : dates) {
+                        date = QueryUtils.getFormattedDate(rawDate);
+                    }
+                    return date;
+                }
+            });
+        }
+    }
+
+    /**
+     * Builds the author of every result of a response, including the ones without a name
+     */
+    @Test
+    public void getAuthorName() throws Exception {
+        final String[][] names = {
+                {"Jon", "Henley"}, {"Daniel", "Boffey"}, {null, "Ellis-Petersen"}, {"Alex", null},
+                {null, null}, {"Jess", ""}};
+        for (final int size : SIZES) {
+            benchmark.run("getAuthorName", size, new MicroBenchmark.Operation() {
+                @Override
+                public Object run() {
+                    String author = null;
+                    for (int i = 0; i < size; i++) {
+                        String[] name = names[i % names.length];
+                        author = QueryUtils.getAuthorName(name[0], name[1]);
+                    }
+                    return author;
+                }
+            });
+        }
+    }
+
+    //The recorded results repeated up to the size, each copy with its own id, url and date
+    static String buildResponse(int size) throws IOException {
+        JSONObject recorded = new JSONObject(readFixture());
+        JSONObject response = recorded.getJSONObject("response");
+        JSONArray recordedResults = response.getJSONArray("results");
+        JSONArray results = new JSONArray();
+        for (int i = 0; i < size; i++) {
+            JSONObject result = new JSONObject(recordedResults.getJSONObject(i % recordedResults.length()).toString());
+            result.put("id", result.getString("id") + "-" + i);
+            result.put("webUrl", result.getString("webUrl") + "-" + i);
+            result.put("webPublicationDate", dateOf(i));
+            results.put(result);
+        }
+        response.put("pageSize", size);
+        response.put("results", results);
+        // Compact, as the API sends it
+        return recorded.toString();
+    }
+
+    private static String[] buildDates(int size) {
+        String[] dates = new String[size];
+        for (int i = 0; i < size; i++) {
+            dates[i] = dateOf(i);
+        }
+        return dates;
+    }
+
+    //A different minute of the same day for every result, newest first
+    private static String dateOf(int index) {
+        int minutes = 24 * 60 - 1 - index % (24 * 60);
+        return String.format(Locale.ROOT, "2018-08-20T%02d:%02d:%02dZ", minutes / 60, minutes % 60, index % 60);
+    }
+
+    //The recorded response, also read by the other benchmarks
+    static String readFixture() throws IOException {
+        InputStream inputStream = QueryUtilsBenchmark.class.getResourceAsStream(FIXTURE);
+        assertNotNull("Missing fixture " + FIXTURE, inputStream);
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                bytes.write(buffer, 0, read);
+            }
+            return new String(bytes.toByteArray(), UTF_8);
+        } finally {
+            inputStream.close();
+        }
+    }
+}
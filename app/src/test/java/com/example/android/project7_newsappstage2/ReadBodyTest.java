@@ -0,0 +1,87 @@
+package com.example.android.project7_newsappstage2;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Reads bodies of awkward sizes with {@link QueryUtils#readBody(InputStream, long)}.
+ */
+public class ReadBodyTest {
+
+    @Test
+    public void knownLengthFillsOneArray() throws IOException {
+        // Exactly the size of a pooled array, the end is only found by reading past it
+        byte[] body = body(16 * 1024);
+        ByteView view = QueryUtils.readBody(new ByteArrayInputStream(body), body.length);
+        try {
+            assertEquals(body.length, view.data.length);
+            assertBody(body, view);
+        } finally {
+            view.release();
+        }
+    }
+
+    @Test
+    public void unknownLengthGrows() throws IOException {
+        byte[] body = body(100 * 1024 + 7);
+        // A slow network hands the body over in small pieces
+        ByteView view = QueryUtils.readBody(new TricklingInputStream(body), -1);
+        try {
+            assertBody(body, view);
+        } finally {
+            view.release();
+        }
+    }
+
+    @Test
+    public void wrongLengthStillReadsEverything() throws IOException {
+        byte[] body = body(20 * 1024);
+        ByteView view = QueryUtils.readBody(new ByteArrayInputStream(body), 1000);
+        try {
+            assertBody(body, view);
+        } finally {
+            view.release();
+        }
+    }
+
+    @Test
+    public void emptyBody() throws IOException {
+        ByteView view = QueryUtils.readBody(new ByteArrayInputStream(new byte[0]), 0);
+        assertEquals(0, view.length);
+        assertEquals("", view.decode());
+        view.release();
+    }
+
+    private static void assertBody(byte[] expected, ByteView view) {
+        assertEquals(expected.length, view.length);
+        assertArrayEquals(expected, Arrays.copyOf(view.data, view.length));
+    }
+
+    private static byte[] body(int length) {
+        byte[] body = new byte[length];
+        for (int i = 0; i < length; i++) {
+            body[i] = (byte) ('a' + i % 26);
+        }
+        return body;
+    }
+
+    //Returns at most 1000 bytes per read
+    private static final class TricklingInputStream extends FilterInputStream {
+
+        TricklingInputStream(byte[] body) {
+            super(new ByteArrayInputStream(body));
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            return super.read(buffer, offset, Math.min(length, 1000));
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.android.project7_newsappstage2;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks what {@link ReloadPlanner} downloads when the page size changes.
+ */
+public class ReloadPlannerTest {
+
+    @Test
+    public void longerPageOnlyDownloadsTheRest() {
+        // From 10 to 20 articles: page 2 of 10
+        assertEquals(1, ReloadPlanner.getMissingPages(0, 20, 10, 10));
+        // From 10 to 25 articles: pages 2 and 3 of 10
+        assertEquals(2, ReloadPlanner.getMissingPages(0, 25, 10, 10));
+        // From 10 to 40 articles takes too many requests, the page is downloaded in one go
+        assertEquals(-1, ReloadPlanner.getMissingPages(0, 40, 10, 10));
+    }
+
+    @Test
+    public void shorterPageDownloadsNothing() {
+        assertEquals(0, ReloadPlanner.getMissingPages(0, 10, 20, 20));
+        // Page 2 of 5 is still within the first page of 20
+        assertEquals(0, ReloadPlanner.getMissingPages(5, 10, 20, 20));
+        // A short first page is all the section has
+        assertEquals(0, ReloadPlanner.getMissingPages(0, 20, 7, 10));
+    }
+
+    @Test
+    public void heldPageOutsideTheRangeIsOfNoUse() {
+        assertEquals(-1, ReloadPlanner.getMissingPages(20, 40, 10, 10));
+        assertEquals(-1, ReloadPlanner.getMissingPages(0, 10, 0, 10));
+    }
+
+    @Test
+    public void completeSkipsArticlesShiftedIntoTheNextPage() {
+        ReloadPlanner.Plan plan = new ReloadPlanner.Plan(
+                new NewsCache.Entry(news(0, 3), 0), Collections.singletonList("page 2"), 0, 6);
+        // An article published in between pushed article 2 into page 2
+        List<News> page = plan.complete(Collections.singletonList(news(2, 6)));
+        assertEquals(Arrays.asList("0", "1", "2", "3", "4", "5"), urls(page));
+    }
+
+    @Test
+    public void completeTrimsToTheRequestedPage() {
+        ReloadPlanner.Plan plan = new ReloadPlanner.Plan(
+                new NewsCache.Entry(news(0, 20), 0), Collections.<String>emptyList(), 5, 10);
+        assertEquals(Arrays.asList("5", "6", "7", "8", "9"), urls(plan.getHeldNews()));
+        assertEquals(Arrays.asList("5", "6", "7", "8", "9"),
+                urls(plan.complete(Collections.<List<News>>emptyList())));
+    }
+
+    //News whose url is their position in the section
+    private static List<News> news(int from, int to) {
+        List<News> news = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            news.add(new News("world", "World news", "Title " + i, null, String.valueOf(i), -i, null));
+        }
+        return news;
+    }
+
+    private static List<String> urls(List<News> news) {
+        List<String> urls = new ArrayList<>();
+        for (News item : news) {
+            urls.add(item.getArticleUrl());
+        }
+        return urls;
+    }
+}